@@ -0,0 +1,65 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the sequential and the parallel reduction of {@link Aggregation} on arrays of 1000 to a million values
+ * with two decimal places, in both modes, to show from which size the fork-join overhead pays off and where
+ * calculator.aggregate.parallel-threshold should sit on a given machine.
+ * The sum is the cheapest reduction per value and the dot product multiplies each pair first.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar AggregationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class AggregationBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"sum", "dot"})
+    public String operation;
+
+    @Param({"EXACT", "DOUBLE"})
+    public Aggregation.Mode mode;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private Calculation calculation;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<BigDecimal> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(BigDecimal.valueOf(random.nextInt(2_000_000) - 1_000_000, 2));
+        }
+        calculation = new Calculation(Aggregation.toOperation(operation, mode), null, null, null, null, values);
+    }
+
+    @Benchmark
+    public String aggregate() {
+        return Aggregation.aggregate(calculation, parallel ? 0 : Integer.MAX_VALUE);
+    }
+}
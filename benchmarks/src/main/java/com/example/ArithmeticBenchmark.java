@@ -0,0 +1,72 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the calculation engine with the BigDecimal arithmetic it replaced, which created a result, a stripped copy
+ * and, for whole numbers, a BigInteger for every calculation. Run with the GC profiler to see the bytes allocated per
+ * operation (gc.alloc.rate.norm) next to the throughput.
+ * The operand params cover the long fast path (small decimals) and the BigDecimal fallback (more than 18 digits).
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ArithmeticBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArithmeticBenchmark {
+
+    @Param({"sum", "multiply", "divide"})
+    public String operation;
+
+    @Param({"1234.5678:-98.76", "12345678901234567890.5:3.25"})
+    public String operands;
+
+    private Calculation calculation;
+
+    @Setup
+    public void setUp() {
+        String[] values = operands.split(":");
+        calculation = new Calculation(operation, new BigDecimal(values[0]), new BigDecimal(values[1]));
+    }
+
+    @Benchmark
+    public String engine() {
+        return CalculationEngine.calculate(calculation);
+    }
+
+    /**
+     * The arithmetic of the calculator service before the engine.
+     */
+    @Benchmark
+    public String bigDecimal() {
+        BigDecimal a = calculation.a();
+        BigDecimal b = calculation.b();
+        BigDecimal result = switch (calculation.operation()) {
+            case "sum" -> a.add(b);
+            case "subtract" -> a.subtract(b);
+            case "multiply" -> a.multiply(b);
+            default -> a.divide(b, RoundingMode.HALF_UP);
+        };
+        if (result.stripTrailingZeros().scale() <= 0) {
+            return result.toBigInteger().toString();
+        }
+        return result.toString();
+    }
+}
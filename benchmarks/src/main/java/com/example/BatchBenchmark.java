@@ -0,0 +1,157 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+/**
+ * Compares the throughput of 100 operations sent as 100 single-operation requests, all in flight at once like 100
+ * concurrent GET /sum calls, against the same operations sent as one POST /batch request.
+ * Both paths run against an embedded Kafka broker, with {@link CalculatorService} answering the requests and a
+ * {@link KafkaCalculationExecutor} sending them, as the rest module does in remote mode, so every single request pays
+ * for its request ID, Kafka record, pending future and reply. The time is reported per operation, and the bytes put on
+ * the wire per operation are printed on set up.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar BatchBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BatchBenchmark {
+
+    private static final int OPERATIONS = 100;
+    private static final String REPLY_TOPIC = "calculation-results-benchmark";
+
+    @Param({"STRING", "BINARY"})
+    public WireFormat format;
+
+    private EmbeddedKafkaKraftBroker broker;
+    private final List<KafkaMessageListenerContainer<?, ?>> containers = new ArrayList<>();
+    private final List<DefaultKafkaProducerFactory<?, ?>> producerFactories = new ArrayList<>();
+    private KafkaCalculationExecutor executor;
+    private final List<Calculation> calculations = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < OPERATIONS; i++) {
+            calculations.add(new Calculation("sum", new BigDecimal("1234.5678"), BigDecimal.valueOf(i)));
+        }
+        printWireSize();
+
+        broker = new EmbeddedKafkaKraftBroker(1, 1, "calculation-requests", REPLY_TOPIC);
+        broker.afterPropertiesSet();
+
+        CalculatorService calculatorService = new CalculatorService(template(CalculationReplySerializer.class));
+        calculatorService.meterRegistry = new SimpleMeterRegistry();
+        start("calculation-requests", ByteArrayDeserializer.class, (MessageListener<String, byte[]>) calculatorService::processRequest);
+
+        executor = new KafkaCalculationExecutor(template(CalculationRequestSerializer.class), REPLY_TOPIC, Duration.ofSeconds(30));
+        start(REPLY_TOPIC, CalculationReplyDeserializer.class,
+                (MessageListener<String, CalculationReply>) record -> executor.listenToResults(record.value()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.close();
+        containers.forEach(KafkaMessageListenerContainer::stop);
+        producerFactories.forEach(DefaultKafkaProducerFactory::destroy);
+        broker.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int oneAtATime() {
+        List<CompletableFuture<List<String>>> responses = new ArrayList<>(OPERATIONS);
+        for (Calculation calculation : calculations) {
+            responses.add(executor.execute(UUID.randomUUID().toString(), List.of(calculation)));
+        }
+        int results = 0;
+        for (CompletableFuture<List<String>> response : responses) {
+            results += response.join().size();
+        }
+        return results;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public int batch() {
+        return executor.execute(UUID.randomUUID().toString(), calculations).join().size();
+    }
+
+    private void printWireSize() {
+        long singleBytes = 0;
+        List<String> results = new ArrayList<>();
+        for (Calculation calculation : calculations) {
+            String requestId = UUID.randomUUID().toString();
+            String result = calculation.a().add(calculation.b()).toPlainString();
+            singleBytes += CalculationCodec.encodeRequest(new CalculationRequest(requestId, List.of(calculation)), format).length
+                    + CalculationCodec.encodeReply(new CalculationReply(requestId, result), format).length;
+            results.add(result);
+        }
+        String batchId = UUID.randomUUID().toString();
+        long batchBytes = CalculationCodec.encodeRequest(new CalculationRequest(batchId, calculations), format).length
+                + CalculationCodec.encodeReply(new CalculationReply(batchId, results), format).length;
+        System.out.printf("%n%s format: %d bytes per operation one at a time, %d bytes per operation in a batch%n",
+                format, singleBytes / OPERATIONS, batchBytes / OPERATIONS);
+    }
+
+    private <V> KafkaTemplate<String, V> template(Class<?> valueSerializer) {
+        DefaultKafkaProducerFactory<String, V> producerFactory = new DefaultKafkaProducerFactory<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer,
+                WireFormat.CONFIG, format.name().toLowerCase()));
+        producerFactories.add(producerFactory);
+        return new KafkaTemplate<>(producerFactory);
+    }
+
+    private <V> void start(String topic, Class<?> valueDeserializer, MessageListener<String, V> listener) {
+        ContainerProperties containerProperties = new ContainerProperties(topic);
+        containerProperties.setMessageListener(listener);
+        KafkaMessageListenerContainer<String, V> container = new KafkaMessageListenerContainer<>(
+                new DefaultKafkaConsumerFactory<>(Map.of(
+                        ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                        ConsumerConfig.GROUP_ID_CONFIG, topic + "-group",
+                        ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest",
+                        ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                        ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer)),
+                containerProperties);
+        container.start();
+        containers.add(container);
+    }
+}
@@ -0,0 +1,161 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchMessageListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+/**
+ * Measures how long the calculator takes to answer a backlog of requests spread over the partitions of the request
+ * topic, with 1, 4 or one listener thread per core, and with the records of each poll also calculated on a worker pool.
+ * Each iteration fills a fresh topic, then starts the listener containers running {@link CalculatorService} and times
+ * until every request is answered, so the group join of the consumers is included in every score alike.
+ * The divide operation asks for 1000 significant digits to show how the threads share a heavier calculation.
+ * Throughput is the number of requests divided by the reported time.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ConsumerConcurrencyBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConsumerConcurrencyBenchmark {
+
+    private static final int PARTITIONS = 12;
+    private static final int REQUESTS = 20_000;
+    private static final int DIVISION_PRECISION = 1000;  // Digits of each quotient in the divide runs
+
+    /** Listener threads, 0 for one per core as in the calculator default. */
+    @Param({"1", "4", "0"})
+    public int concurrency;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    @Param({"sum", "divide"})
+    public String operation;
+
+    private EmbeddedKafkaKraftBroker broker;
+    private DefaultKafkaProducerFactory<String, byte[]> requestFactory;
+    private DefaultKafkaProducerFactory<String, CalculationReply> replyFactory;
+    private CalculatorService calculatorService;
+    private ConcurrentMessageListenerContainer<String, byte[]> container;
+    private final AtomicInteger answered = new AtomicInteger();
+    private int iteration;
+
+    @Setup
+    public void setUp() {
+        broker = new EmbeddedKafkaKraftBroker(1, PARTITIONS, "calculation-results");
+        broker.afterPropertiesSet();
+        requestFactory = new DefaultKafkaProducerFactory<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class));
+        replyFactory = new DefaultKafkaProducerFactory<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, CalculationReplySerializer.class));
+
+        calculatorService = new CalculatorService(new KafkaTemplate<>(replyFactory));
+        calculatorService.meterRegistry = new SimpleMeterRegistry();
+        calculatorService.maxPrecision = DIVISION_PRECISION;
+        if (parallel) {
+            calculatorService.calculationWorkers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (calculatorService.calculationWorkers != null) {
+            calculatorService.calculationWorkers.shutdown();
+        }
+        requestFactory.destroy();
+        replyFactory.destroy();
+        broker.destroy();
+    }
+
+    /**
+     * Fills a new request topic with the backlog, keyed by random request IDs like the rest module does,
+     * and prepares listener containers for it.
+     */
+    @Setup(Level.Iteration)
+    public void fillTopic() {
+        String topic = "calculation-requests-" + iteration++;
+        broker.addTopics(topic);
+        KafkaTemplate<String, byte[]> requests = new KafkaTemplate<>(requestFactory);
+        Calculation calculation = "divide".equals(operation)
+                ? new Calculation("divide", BigDecimal.ONE, new BigDecimal("7"), DIVISION_PRECISION, null)
+                : new Calculation("sum", new BigDecimal("1234.5678"), new BigDecimal("-98.76"));
+        for (int i = 0; i < REQUESTS; i++) {
+            String requestId = UUID.randomUUID().toString();
+            requests.send(new ProducerRecord<>(topic, requestId,
+                    CalculationCodec.encodeRequest(new CalculationRequest(requestId, List.of(calculation)), WireFormat.STRING)));
+        }
+        requests.flush();
+
+        answered.set(0);
+        ContainerProperties containerProperties = new ContainerProperties(topic);
+        containerProperties.setMessageListener((BatchMessageListener<String, byte[]>) records -> {
+            calculatorService.processRequests(new ArrayList<>(records));
+            answered.addAndGet(records.size());
+        });
+        container = new ConcurrentMessageListenerContainer<>(new DefaultKafkaConsumerFactory<>(Map.of(
+                ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ConsumerConfig.GROUP_ID_CONFIG, topic + "-group",
+                ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest",
+                ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500,
+                ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class)),
+                containerProperties);
+        container.setConcurrency(concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopContainer() {
+        container.stop();
+    }
+
+    @Benchmark
+    public int answerBacklog() throws InterruptedException {
+        container.start();
+        while (answered.get() < REQUESTS) {
+            Thread.sleep(1);
+        }
+        return answered.get();
+    }
+}
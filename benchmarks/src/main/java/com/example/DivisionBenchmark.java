@@ -0,0 +1,58 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a division that does not terminate at different requested precisions, which is what
+ * calculator.max-precision protects against, next to the old workaround of padding the dividend with a large scale.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar DivisionBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DivisionBenchmark {
+
+    @Param({"16", "34", "100", "1000"})
+    public int precision;
+
+    private Calculation calculation;
+    private BigDecimal paddedDividend;
+    private final BigDecimal divisor = new BigDecimal("7");
+
+    @Setup
+    public void setUp() {
+        calculation = new Calculation("divide", new BigDecimal("22"), divisor, precision, RoundingMode.HALF_EVEN);
+        paddedDividend = new BigDecimal("22").setScale(precision);
+    }
+
+    @Benchmark
+    public String mathContext() {
+        return CalculationEngine.calculate(calculation);
+    }
+
+    /**
+     * The old workaround: a dividend with a large scale, divided with the scale of the dividend.
+     */
+    @Benchmark
+    public String paddedScale() {
+        return paddedDividend.divide(divisor, RoundingMode.HALF_EVEN).toString();
+    }
+}
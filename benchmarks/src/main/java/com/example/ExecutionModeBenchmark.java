@@ -0,0 +1,135 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+/**
+ * Compares the latency of one calculation in each execution mode of the rest module, against an embedded Kafka broker.
+ * Remote mode sends the request through Kafka to a stub calculator running the same {@link CalculationEngine} as the
+ * calculator service and waits for its reply, local mode calculates in process, and local-audit calculates in process
+ * and publishes the request to the audit topic without waiting for the broker.
+ * Sample time mode reports the p50/p99 latency of each mode.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ExecutionModeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+    private static final String REPLY_TOPIC = "calculation-results-benchmark";
+
+    @Param({"remote", "local", "local-audit"})
+    public String mode;
+
+    private EmbeddedKafkaKraftBroker broker;
+    private final List<KafkaMessageListenerContainer<?, ?>> containers = new ArrayList<>();
+    private final List<DefaultKafkaProducerFactory<?, ?>> producerFactories = new ArrayList<>();
+    private CalculationExecutor executor;
+    private final List<Calculation> calculation = List.of(new Calculation("multiply", new BigDecimal("1234.5678"), new BigDecimal("-98.76")));
+
+    @Setup
+    public void setUp() {
+        broker = new EmbeddedKafkaKraftBroker(1, 1, "calculation-requests", LocalCalculationExecutor.AUDIT_TOPIC, REPLY_TOPIC);
+        broker.afterPropertiesSet();
+        KafkaTemplate<String, CalculationRequest> requests = template(CalculationRequestSerializer.class);
+
+        switch (mode) {
+            case "local" -> executor = new LocalCalculationExecutor(null);
+            case "local-audit" -> executor = new LocalCalculationExecutor(requests);
+            default -> {
+                startStubCalculator();
+                KafkaCalculationExecutor kafkaExecutor = new KafkaCalculationExecutor(requests, REPLY_TOPIC, Duration.ofSeconds(30));
+                start(REPLY_TOPIC, CalculationReplyDeserializer.class,
+                        (MessageListener<String, CalculationReply>) record -> kafkaExecutor.listenToResults(record.value()));
+                executor = kafkaExecutor;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        containers.forEach(KafkaMessageListenerContainer::stop);
+        producerFactories.forEach(DefaultKafkaProducerFactory::destroy);
+        broker.destroy();
+    }
+
+    @Benchmark
+    public List<String> calculate() {
+        return executor.execute(UUID.randomUUID().toString(), calculation).join();
+    }
+
+    /**
+     * Starts a stub calculator that answers each request on the reply topic named in its header.
+     */
+    private void startStubCalculator() {
+        KafkaTemplate<String, CalculationReply> replies = template(CalculationReplySerializer.class);
+        start("calculation-requests", ByteArrayDeserializer.class, (MessageListener<String, byte[]>) (ConsumerRecord<String, byte[]> record) -> {
+            CalculationRequest request = CalculationCodec.decodeRequest(record.value());
+            List<String> results = request.calculations().stream().map(CalculationEngine::calculate).toList();
+            String replyTopic = new String(record.headers().lastHeader(KafkaHeaders.REPLY_TOPIC).value(), StandardCharsets.UTF_8);
+            replies.send(replyTopic, request.requestId(), new CalculationReply(request.requestId(), results));
+        });
+    }
+
+    private <V> KafkaTemplate<String, V> template(Class<?> valueSerializer) {
+        DefaultKafkaProducerFactory<String, V> producerFactory = new DefaultKafkaProducerFactory<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer));
+        producerFactories.add(producerFactory);
+        return new KafkaTemplate<>(producerFactory);
+    }
+
+    private <V> void start(String topic, Class<?> valueDeserializer, MessageListener<String, V> listener) {
+        ContainerProperties containerProperties = new ContainerProperties(topic);
+        containerProperties.setMessageListener(listener);
+        KafkaMessageListenerContainer<String, V> container = new KafkaMessageListenerContainer<>(
+                new DefaultKafkaConsumerFactory<>(Map.of(
+                        ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                        ConsumerConfig.GROUP_ID_CONFIG, topic + "-group",
+                        ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest",
+                        ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                        ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer)),
+                containerProperties);
+        container.start();
+        containers.add(container);
+    }
+}
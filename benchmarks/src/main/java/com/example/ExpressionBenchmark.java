@@ -0,0 +1,127 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+/**
+ * Compares the latency of calculating (a * b + 3) / 7 through Kafka as three chained operations, each waiting for
+ * the result of the previous one, with a single request carrying the whole expression.
+ * Both paths run against an embedded Kafka broker, with {@link CalculatorService} answering the requests and a
+ * {@link KafkaCalculationExecutor} sending them, as the rest module does in remote mode.
+ * Sample time mode reports the p50/p99 latency of each path.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ExpressionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    private static final String REPLY_TOPIC = "calculation-results-benchmark";
+
+    private EmbeddedKafkaKraftBroker broker;
+    private final List<KafkaMessageListenerContainer<?, ?>> containers = new ArrayList<>();
+    private final List<DefaultKafkaProducerFactory<?, ?>> producerFactories = new ArrayList<>();
+    private KafkaCalculationExecutor executor;
+    private final BigDecimal a = new BigDecimal("1234.5678");
+    private final BigDecimal b = new BigDecimal("-98.76");
+    private final BigDecimal three = new BigDecimal("3");
+    private final BigDecimal seven = new BigDecimal("7");
+    private final List<Calculation> expression = List.of(new Calculation(Expression.toOperation("(a * b + 3) / 7"), a, b));
+
+    @Setup
+    public void setUp() {
+        broker = new EmbeddedKafkaKraftBroker(1, 1, "calculation-requests", REPLY_TOPIC);
+        broker.afterPropertiesSet();
+
+        CalculatorService calculatorService = new CalculatorService(template(CalculationReplySerializer.class));
+        calculatorService.meterRegistry = new SimpleMeterRegistry();
+        calculatorService.expressionCache = new ExpressionCache(100);  // Holds the one expression of the benchmark
+        start("calculation-requests", ByteArrayDeserializer.class, (MessageListener<String, byte[]>) calculatorService::processRequest);
+
+        executor = new KafkaCalculationExecutor(template(CalculationRequestSerializer.class), REPLY_TOPIC, Duration.ofSeconds(30));
+        start(REPLY_TOPIC, CalculationReplyDeserializer.class,
+                (MessageListener<String, CalculationReply>) record -> executor.listenToResults(record.value()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.close();
+        containers.forEach(KafkaMessageListenerContainer::stop);
+        producerFactories.forEach(DefaultKafkaProducerFactory::destroy);
+        broker.destroy();
+    }
+
+    @Benchmark
+    public String chained() {
+        BigDecimal product = new BigDecimal(calculate(new Calculation("multiply", a, b)));
+        BigDecimal sum = new BigDecimal(calculate(new Calculation("sum", product, three)));
+        return calculate(new Calculation("divide", sum, seven));
+    }
+
+    @Benchmark
+    public String expression() {
+        return executor.execute(UUID.randomUUID().toString(), expression).join().get(0);
+    }
+
+    private String calculate(Calculation calculation) {
+        return executor.execute(UUID.randomUUID().toString(), List.of(calculation)).join().get(0);
+    }
+
+    private <V> KafkaTemplate<String, V> template(Class<?> valueSerializer) {
+        DefaultKafkaProducerFactory<String, V> producerFactory = new DefaultKafkaProducerFactory<>(Map.of(
+                ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+                ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer));
+        producerFactories.add(producerFactory);
+        return new KafkaTemplate<>(producerFactory);
+    }
+
+    private <V> void start(String topic, Class<?> valueDeserializer, MessageListener<String, V> listener) {
+        ContainerProperties containerProperties = new ContainerProperties(topic);
+        containerProperties.setMessageListener(listener);
+        KafkaMessageListenerContainer<String, V> container = new KafkaMessageListenerContainer<>(
+                new DefaultKafkaConsumerFactory<>(Map.of(
+                        ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString(),
+                        ConsumerConfig.GROUP_ID_CONFIG, topic + "-group",
+                        ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest",
+                        ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                        ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer)),
+                containerProperties);
+        container.start();
+        containers.add(container);
+    }
+}
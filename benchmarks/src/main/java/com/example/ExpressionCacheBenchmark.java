@@ -0,0 +1,55 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the in-process cost of (a * b + 3) / 7 once it reached the calculator: compiling the expression for
+ * every request, evaluating it from the {@link ExpressionCache}, and the three chained operations of the
+ * {@link CalculationEngine} it replaces.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ExpressionCacheBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ExpressionCacheBenchmark {
+
+    private final BigDecimal a = new BigDecimal("1234.5678");
+    private final BigDecimal b = new BigDecimal("-98.76");
+    private final BigDecimal three = new BigDecimal("3");
+    private final BigDecimal seven = new BigDecimal("7");
+    private final Calculation expression = new Calculation(Expression.toOperation("(a * b + 3) / 7"), a, b);
+    private final ExpressionCache expressionCache = new ExpressionCache(100);
+
+    @Benchmark
+    public String compiled() {
+        return CalculationEngine.format(Expression.compile(expression.operation())
+                .evaluate(a, b, CalculationEngine.mathContext(expression)));
+    }
+
+    @Benchmark
+    public String cached() {
+        return expressionCache.evaluate(expression);
+    }
+
+    @Benchmark
+    public String chained() {
+        BigDecimal product = new BigDecimal(CalculationEngine.calculate(new Calculation("multiply", a, b)));
+        BigDecimal sum = new BigDecimal(CalculationEngine.calculate(new Calculation("sum", product, three)));
+        return CalculationEngine.calculate(new Calculation("divide", sum, seven));
+    }
+}
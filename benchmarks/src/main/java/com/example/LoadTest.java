@@ -0,0 +1,305 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * End-to-end load test: starts an embedded Kafka broker, runs the calculator and rest services from their exec jars
+ * against it, and sends GET requests to one REST endpoint at a fixed rate.
+ * Requests are sent on schedule whether or not earlier ones were answered, and each latency is measured from the time
+ * the request was due rather than actually sent, so a stalled service shows up in the percentiles instead of slowing
+ * the load down (coordinated omission). Operands are random, so the result cache of the rest service rarely hits.
+ * Only the requests due after the warmup are counted, and only successful ones are recorded in the latency histogram;
+ * every outcome is counted by status code or exception.
+ *
+ * Writes load-test.json, with the throughput, the outcomes, the latency percentiles in microseconds and the full
+ * histogram as a compressed base64 HdrHistogram, and load-test.hgrm, the percentile distribution in milliseconds, to
+ * the output directory, together with the logs of both services. Compare the JSON of two releases to catch regressions.
+ *
+ * Build with mvn clean package -DskipTests, then run from the project directory with:
+ * java -cp benchmarks/target/benchmarks.jar com.example.LoadTest --rate=1000 --duration=60s
+ *
+ * Options: --rate (requests per second, default 500), --duration (measured time, default 60s), --warmup (default 10s),
+ * --operation (sum, subtract, multiply, divide or evaluate, default sum), --output (default benchmarks/target/load-test)
+ * and --project-dir (default the working directory). Any other --name=value argument is passed on to both services,
+ * for example --calculator.execution.mode=local or --spring.threads.virtual.enabled=true.
+ */
+public class LoadTest {
+
+    private static final Set<String> OPERATIONS = Set.of("sum", "subtract", "multiply", "divide", "evaluate");
+    private static final String EXPRESSION = URLEncoder.encode("(a*b+3)/7", StandardCharsets.UTF_8);
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(60);  // Longer than calculator.reply-timeout
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(5);
+
+    private final int rate;
+    private final Duration duration;
+    private final Duration warmup;
+    private final String operation;
+    private final Path output;
+    private final Path projectDir;
+    private final List<String> serviceArguments;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final Recorder latencies = new Recorder(HIGHEST_LATENCY, 3);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final AtomicLong pending = new AtomicLong();
+
+    LoadTest(Map<String, String> options, List<String> serviceArguments) {
+        this.rate = Integer.parseInt(options.getOrDefault("rate", "500"));
+        this.duration = DurationStyle.detectAndParse(options.getOrDefault("duration", "60s"));
+        this.warmup = DurationStyle.detectAndParse(options.getOrDefault("warmup", "10s"));
+        this.operation = options.getOrDefault("operation", "sum");
+        this.output = Path.of(options.getOrDefault("output", "benchmarks/target/load-test"));
+        this.projectDir = Path.of(options.getOrDefault("project-dir", "."));
+        this.serviceArguments = serviceArguments;
+
+        if (rate < 1 || rate > 1_000_000) {
+            throw new IllegalArgumentException("Rate must be between 1 and 1000000 requests per second");
+        }
+        if (!OPERATIONS.contains(operation)) {
+            throw new IllegalArgumentException("Operation must be one of " + OPERATIONS);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> harnessOptions = Set.of("rate", "duration", "warmup", "operation", "output", "project-dir");
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> serviceArguments = new ArrayList<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Arguments must be --name=value: " + arg);
+            }
+            String name = arg.substring(2, equals);
+            if (harnessOptions.contains(name)) {
+                options.put(name, arg.substring(equals + 1));
+            } else {
+                serviceArguments.add(arg);
+            }
+        }
+        new LoadTest(options, serviceArguments).run();
+    }
+
+    void run() throws Exception {
+        Files.createDirectories(output);
+        EmbeddedKafkaKraftBroker broker = new EmbeddedKafkaKraftBroker(1, 1);
+        broker.afterPropertiesSet();
+        List<Process> services = new ArrayList<>();
+        try {
+            int calculatorPort = freePort();
+            int restPort = freePort();
+            services.add(startService("calculator", calculatorPort, broker.getBrokersAsString()));
+            services.add(startService("rest", restPort, broker.getBrokersAsString()));
+            awaitHealthy(services.get(0), calculatorPort);
+            awaitHealthy(services.get(1), restPort);
+
+            System.out.printf("Sending %d %s requests per second for %s after a warmup of %s%n", rate, operation, duration, warmup);
+            long sent = sendRequests("http://localhost:" + restPort);
+            report(sent, latencies.getIntervalHistogram());
+        } finally {
+            for (Process service : services) {
+                service.destroy();  // Graceful shutdown, like a SIGTERM from the orchestrator
+                if (!service.waitFor(30, TimeUnit.SECONDS)) {
+                    service.destroyForcibly();
+                }
+            }
+            broker.destroy();
+        }
+    }
+
+    /**
+     * Sends the requests on a fixed schedule from one thread and waits for the last answers.
+     *
+     * @param baseUrl the address of the rest service
+     * @return the number of requests sent after the warmup
+     */
+    private long sendRequests(String baseUrl) throws InterruptedException {
+        Random random = new Random(42);
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / (double) rate;
+        long start = System.nanoTime();
+        long measureStart = start + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        long sent = 0;
+
+        for (long i = 0; ; i++) {
+            long due = start + (long) (i * intervalNanos);
+            if (due >= end) {
+                break;
+            }
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = due >= measureStart;
+            sent += measured ? 1 : 0;
+            pending.incrementAndGet();
+            client.sendAsync(request(baseUrl, random), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, e) -> {
+                        long latency = System.nanoTime() - due;
+                        if (measured) {
+                            String outcome = e != null ? e.getClass().getSimpleName() : String.valueOf(response.statusCode());
+                            outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+                            if (e == null && response.statusCode() == 200) {
+                                latencies.recordValue(Math.min(latency, HIGHEST_LATENCY));
+                            }
+                        }
+                        pending.decrementAndGet();
+                    });
+        }
+
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (pending.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        if (pending.get() > 0) {
+            outcomes.computeIfAbsent("unanswered", key -> new LongAdder()).add(pending.get());
+        }
+        return sent;
+    }
+
+    private HttpRequest request(String baseUrl, Random random) {
+        BigDecimal a = BigDecimal.valueOf(random.nextInt(2_000_000) - 1_000_000, 2);
+        BigDecimal b = BigDecimal.valueOf(random.nextInt(2_000_000) - 1_000_000, 2);
+        if (b.signum() == 0) {
+            b = BigDecimal.ONE;  // Keeps divisions valid
+        }
+        String path = operation.equals("evaluate")
+                ? "/evaluate?expression=" + EXPRESSION + "&a=" + a + "&b=" + b
+                : "/" + operation + "?a=" + a + "&b=" + b;
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(DRAIN_TIMEOUT)
+                .GET()
+                .build();
+    }
+
+    private void report(long sent, Histogram histogram) throws IOException {
+        double seconds = duration.toNanos() / 1e9;
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("min", histogram.getMinValue() / 1000.0);
+        latency.put("mean", histogram.getMean() / 1000.0);
+        latency.put("p50", histogram.getValueAtPercentile(50) / 1000.0);
+        latency.put("p90", histogram.getValueAtPercentile(90) / 1000.0);
+        latency.put("p99", histogram.getValueAtPercentile(99) / 1000.0);
+        latency.put("p99.9", histogram.getValueAtPercentile(99.9) / 1000.0);
+        latency.put("p99.99", histogram.getValueAtPercentile(99.99) / 1000.0);
+        latency.put("max", histogram.getMaxValue() / 1000.0);
+        latency.put("stdDeviation", histogram.getStdDeviation() / 1000.0);
+
+        ByteBuffer encoded = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(encoded);
+
+        Map<String, Long> outcomeCounts = new TreeMap<>();
+        outcomes.forEach((outcome, count) -> outcomeCounts.put(outcome, count.sum()));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timestamp", Instant.now().toString());
+        result.put("operation", operation);
+        result.put("targetRate", rate);
+        result.put("warmupSeconds", warmup.toNanos() / 1e9);
+        result.put("durationSeconds", seconds);
+        result.put("requests", sent);
+        result.put("successes", histogram.getTotalCount());
+        result.put("throughput", histogram.getTotalCount() / seconds);
+        result.put("outcomes", outcomeCounts);
+        result.put("latencyMicros", latency);
+        result.put("histogram", Base64.getEncoder().encodeToString(
+                Arrays.copyOf(encoded.array(), length)));  // Nanoseconds, decode with Histogram.decodeFromCompressedByteBuffer
+
+        File json = output.resolve("load-test.json").toFile();
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(json, result);
+        try (PrintStream hgrm = new PrintStream(output.resolve("load-test.hgrm").toFile(), StandardCharsets.UTF_8)) {
+            histogram.outputPercentileDistribution(hgrm, 1_000_000.0);  // Milliseconds
+        }
+
+        System.out.printf("%d requests, %.1f successful per second, outcomes %s%n", sent, histogram.getTotalCount() / seconds, outcomeCounts);
+        System.out.printf("Latency p50 %.0f us, p99 %.0f us, p99.9 %.0f us, max %.0f us%n",
+                latency.get("p50"), latency.get("p99"), latency.get("p99.9"), latency.get("max"));
+        System.out.println("Results written to " + json.getAbsolutePath());
+    }
+
+    /**
+     * Starts a service from the exec jar of its module, in the module directory so its application.properties applies.
+     */
+    private Process startService(String module, int port, String bootstrapServers) throws IOException {
+        Path moduleDir = projectDir.resolve(module).toAbsolutePath();
+        Path jar = moduleDir.resolve("target/" + module + "-1.0-SNAPSHOT-exec.jar");
+        if (!Files.exists(jar)) {
+            throw new IllegalStateException(jar + " not found, build it with mvn clean package -DskipTests");
+        }
+
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-jar", jar.toString(),
+                "--spring.kafka.bootstrap-servers=" + bootstrapServers,
+                "--spring.docker.compose.enabled=false",
+                "--server.port=" + port));
+        command.addAll(serviceArguments);
+        return new ProcessBuilder(command)
+                .directory(moduleDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(output.resolve(module + ".log").toFile())
+                .start();
+    }
+
+    private void awaitHealthy(Process service, int port) throws IOException, InterruptedException {
+        HttpRequest health = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health")).build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!service.isAlive()) {
+                throw new IllegalStateException("Service on port " + port + " exited, see its log in " + output);
+            }
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("Service on port " + port + " not healthy after " + STARTUP_TIMEOUT);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
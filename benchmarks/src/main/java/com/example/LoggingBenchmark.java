@@ -0,0 +1,162 @@
+package com.example;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.SizeAndTimeBasedRollingPolicy;
+import ch.qos.logback.core.util.FileSize;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Measures what the per-request log lines cost the throughput of the rest endpoints, with calculations running in
+ * process so logging is the only I/O left on the request thread.
+ * off disables the lines, sync-file writes them through the synchronous FileAppender the modules used before,
+ * async-file queues them to the rolling file appender through the AsyncAppender of logback-spring.xml, and
+ * async-file-sampled also keeps only 1% of them with the {@link RequestLogSampler}.
+ * The async appenders never block, so once the queue is full lines are dropped instead of slowing requests down.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar LoggingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Threads(4)
+@Fork(1)
+public class LoggingBenchmark {
+
+    private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss} - %msg%n";  // Same as logback-spring.xml
+
+    @Param({"off", "sync-file", "async-file", "async-file-sampled"})
+    public String logging;
+
+    private final LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+    private final Logger logger = context.getLogger(CalculatorController.class);
+    private final BigDecimal a = new BigDecimal("1234.5678");
+    private final BigDecimal b = new BigDecimal("-98.76");
+    private CalculatorController controller;
+    private Appender<ILoggingEvent> appender;
+    private Path logDirectory;
+
+    @Setup
+    public void setUp() throws IOException {
+        controller = new CalculatorController();
+        controller.executor = new LocalCalculationExecutor(null);
+        controller.meterRegistry = new SimpleMeterRegistry();
+        logDirectory = Files.createTempDirectory("logging-benchmark");
+
+        logger.setAdditive(false);  // Only the appender under test, not the console of logback.xml
+        logger.setLevel("off".equals(logging) ? Level.WARN : Level.INFO);
+        switch (logging) {
+            case "sync-file" -> appender = fileAppender();
+            case "async-file" -> appender = asyncAppender(rollingFileAppender());
+            case "async-file-sampled" -> {
+                appender = asyncAppender(rollingFileAppender());
+                RequestLogSampler sampler = new RequestLogSampler();
+                sampler.setSampleRate(0.01);
+                sampler.setContext(context);
+                sampler.start();
+                context.addTurboFilter(sampler);
+            }
+            default -> appender = null;
+        }
+        if (appender != null) {
+            logger.addAppender(appender);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (appender != null) {
+            logger.detachAppender(appender);
+            appender.stop();
+        }
+        context.resetTurboFilterList();
+        logger.setLevel(null);
+        logger.setAdditive(true);
+        try (Stream<Path> files = Files.walk(logDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<CalculationResponse> sum() {
+        return controller.sum(a, b).join();
+    }
+
+    private FileAppender<ILoggingEvent> fileAppender() {
+        FileAppender<ILoggingEvent> file = new FileAppender<>();
+        file.setContext(context);
+        file.setFile(logDirectory.resolve("application.log").toString());
+        file.setEncoder(encoder());
+        file.start();
+        return file;
+    }
+
+    private RollingFileAppender<ILoggingEvent> rollingFileAppender() {
+        RollingFileAppender<ILoggingEvent> file = new RollingFileAppender<>();
+        file.setContext(context);
+        file.setFile(logDirectory.resolve("application.log").toString());
+        file.setEncoder(encoder());
+
+        SizeAndTimeBasedRollingPolicy<ILoggingEvent> policy = new SizeAndTimeBasedRollingPolicy<>();
+        policy.setContext(context);
+        policy.setParent(file);
+        policy.setFileNamePattern(logDirectory.resolve("application.log.%d{yyyy-MM-dd}.%i.gz").toString());
+        policy.setMaxFileSize(FileSize.valueOf("10MB"));
+        policy.setMaxHistory(7);
+        policy.setTotalSizeCap(FileSize.valueOf("1GB"));
+        policy.start();
+        file.setRollingPolicy(policy);
+        file.start();
+        return file;
+    }
+
+    private AsyncAppender asyncAppender(Appender<ILoggingEvent> delegate) {
+        AsyncAppender async = new AsyncAppender();
+        async.setContext(context);
+        async.setQueueSize(8192);
+        async.setNeverBlock(true);
+        async.addAppender(delegate);
+        async.start();
+        return async;
+    }
+
+    private PatternLayoutEncoder encoder() {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.start();
+        return encoder;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Measures the parsing of the JSON request bodies of the rest module, the other half of the message parsing next to
+ * {@link WireFormatBenchmark}: a POST /batch body of 1 to 1000 operations bound at once, and the same operations read
+ * one line at a time like POST /stream does.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar RequestParsingBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestParsingBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int size;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ObjectReader batchReader;
+    private ObjectReader lineReader;
+    private byte[] batch;
+    private String[] lines;
+
+    @Setup
+    public void setUp() {
+        batchReader = objectMapper.readerFor(new TypeReference<List<Calculation>>() {});
+        lineReader = objectMapper.readerFor(Calculation.class);
+        String[] operations = {"sum", "subtract", "multiply", "divide"};
+        StringJoiner body = new StringJoiner(",", "[", "]");
+        lines = new String[size];
+        for (int i = 0; i < size; i++) {
+            lines[i] = "{\"operation\":\"" + operations[i % operations.length] + "\",\"a\":" + (1234.5678 + i) + ",\"b\":-98.76}";
+            body.add(lines[i]);
+        }
+        batch = body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Calculation> batch() throws IOException {
+        return batchReader.readValue(batch);
+    }
+
+    @Benchmark
+    public Calculation[] stream() throws IOException {
+        Calculation[] calculations = new Calculation[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            calculations[i] = lineReader.readValue(lines[i]);
+        }
+        return calculations;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures request latency with and without the result cache for a skewed workload.
+ * Calculations are drawn from a Zipf distribution over a fixed set of distinct calculations, so a few of them make up
+ * most of the traffic, and every miss pays a simulated Kafka round trip to the calculator.
+ * Sample time mode reports the p50/p99 latency, and the cache hit rate is printed on tear down.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ResultCacheBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class ResultCacheBenchmark {
+
+    private static final int SAMPLES = 1 << 20;
+
+    @Param({"none", "cache"})
+    public String mode;
+
+    @Param({"100000"})
+    public int distinctCalculations;
+
+    @Param({"1.0"})
+    public double skew;  // Zipf exponent, higher means more repetitive traffic
+
+    @Param({"10000"})
+    public long cacheSize;
+
+    @Param({"1"})
+    public long roundTripMillis;  // Simulated Kafka round trip to the calculator
+
+    private Calculation[] workload;
+    private ResultCache resultCache;
+    private ScheduledExecutorService calculator;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = new SplittableRandom().nextInt(SAMPLES);
+    }
+
+    @Setup
+    public void setUp() {
+        // Cumulative Zipf distribution over the distinct calculations
+        double[] cumulative = new double[distinctCalculations];
+        double total = 0;
+        for (int rank = 0; rank < distinctCalculations; rank++) {
+            total += 1 / Math.pow(rank + 1, skew);
+            cumulative[rank] = total;
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        workload = new Calculation[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            rank = rank >= 0 ? rank : Math.min(-rank - 1, distinctCalculations - 1);
+            workload[i] = new Calculation("sum", BigDecimal.valueOf(rank), BigDecimal.ONE);
+        }
+
+        resultCache = "cache".equals(mode) ? new ResultCache(cacheSize, Duration.ofMinutes(10)) : null;
+        calculator = Executors.newScheduledThreadPool(4);
+    }
+
+    @TearDown
+    public void tearDown() {
+        calculator.shutdownNow();
+        if (resultCache != null) {
+            System.out.printf("%ncache hit rate = %.1f%%%n", resultCache.stats().hitRate() * 100);
+        }
+    }
+
+    @Benchmark
+    public String request(Cursor cursor) {
+        Calculation calculation = workload[cursor.next++ & (SAMPLES - 1)];
+        CompletableFuture<String> result = resultCache == null
+                ? roundTrip(calculation)
+                : resultCache.get(calculation, this::roundTrip);
+        return result.join();
+    }
+
+    /**
+     * Simulates sending the calculation to the calculator and receiving its result.
+     */
+    private CompletableFuture<String> roundTrip(Calculation calculation) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        calculator.schedule(() -> result.complete(calculation.a().add(calculation.b()).toString()),
+                roundTripMillis, TimeUnit.MILLISECONDS);
+        return result;
+    }
+}
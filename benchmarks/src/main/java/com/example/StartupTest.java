@@ -0,0 +1,241 @@
+package com.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Startup time and memory test: starts the calculator and rest services several times in each packaging against an
+ * embedded Kafka broker, and measures the time from launching the process until /actuator/health answers, and the
+ * resident memory of the process at that point.
+ * The packagings are the fat jar of mvn package, the AOT-processed jar run with its CDS archive from target/aot
+ * (mvn -Paot package) and the native executable (mvn -Pnative package); those not built are skipped.
+ * Every run uses the application.properties of its module.
+ *
+ * Writes startup.json, with the minimum, median and maximum startup time in milliseconds and the median resident
+ * memory in megabytes of each service and packaging, to the output directory, together with the logs of every run.
+ * Resident memory is read from /proc, so it is only reported on Linux.
+ *
+ * Run from the project directory with:
+ * java -cp benchmarks/target/benchmarks.jar com.example.StartupTest --runs=5
+ *
+ * Options: --runs (per service and packaging, default 5), --output (default benchmarks/target/startup) and
+ * --project-dir (default the working directory). Any other --name=value argument is passed on to the services.
+ */
+public class StartupTest {
+
+    private static final List<String> MODULES = List.of("calculator", "rest");
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private final int runs;
+    private final Path output;
+    private final Path projectDir;
+    private final List<String> serviceArguments;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    StartupTest(Map<String, String> options, List<String> serviceArguments) {
+        this.runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        this.output = Path.of(options.getOrDefault("output", "benchmarks/target/startup"));
+        this.projectDir = Path.of(options.getOrDefault("project-dir", "."));
+        this.serviceArguments = serviceArguments;
+
+        if (runs < 1) {
+            throw new IllegalArgumentException("Runs must be at least 1");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Set<String> harnessOptions = Set.of("runs", "output", "project-dir");
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> serviceArguments = new ArrayList<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Arguments must be --name=value: " + arg);
+            }
+            String name = arg.substring(2, equals);
+            if (harnessOptions.contains(name)) {
+                options.put(name, arg.substring(equals + 1));
+            } else {
+                serviceArguments.add(arg);
+            }
+        }
+        new StartupTest(options, serviceArguments).run();
+    }
+
+    void run() throws Exception {
+        Files.createDirectories(output);
+        EmbeddedKafkaKraftBroker broker = new EmbeddedKafkaKraftBroker(1, 1);
+        broker.afterPropertiesSet();
+        List<Map<String, Object>> results = new ArrayList<>();
+        try {
+            for (String module : MODULES) {
+                for (Packaging packaging : Packaging.values()) {
+                    Path moduleDir = projectDir.resolve(module).toAbsolutePath();
+                    if (!Files.exists(packaging.artifact(moduleDir, module))) {
+                        System.out.printf("Skipping %s %s, %s not found%n", module, packaging.id, packaging.artifact(moduleDir, module));
+                        continue;
+                    }
+                    results.add(measure(module, moduleDir, packaging, broker.getBrokersAsString()));
+                }
+            }
+        } finally {
+            broker.destroy();
+        }
+
+        File json = output.resolve("startup.json").toFile();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("runs", runs);
+        report.put("results", results);
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(json, report);
+        System.out.println("Results written to " + json.getAbsolutePath());
+    }
+
+    private Map<String, Object> measure(String module, Path moduleDir, Packaging packaging, String bootstrapServers) throws Exception {
+        long[] startupMillis = new long[runs];
+        long[] residentKilobytes = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            int port = freePort();
+            List<String> command = new ArrayList<>(packaging.command(moduleDir, module));
+            command.addAll(List.of(
+                    "--spring.config.additional-location=optional:file:" + moduleDir.resolve("application.properties"),
+                    "--spring.kafka.bootstrap-servers=" + bootstrapServers,
+                    "--spring.docker.compose.enabled=false",
+                    "--server.port=" + port));
+            command.addAll(serviceArguments);
+
+            long start = System.nanoTime();
+            Process service = new ProcessBuilder(command)
+                    .directory(packaging.workingDirectory(moduleDir).toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(output.resolve(module + "-" + packaging.id + "-" + run + ".log").toFile())
+                    .start();
+            try {
+                awaitHealthy(service, port);
+                startupMillis[run] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                residentKilobytes[run] = residentKilobytes(service.pid());
+            } finally {
+                service.destroy();
+                if (!service.waitFor(30, TimeUnit.SECONDS)) {
+                    service.destroyForcibly();
+                }
+            }
+        }
+
+        Arrays.sort(startupMillis);
+        Arrays.sort(residentKilobytes);
+        long medianMillis = startupMillis[runs / 2];
+        double medianMegabytes = residentKilobytes[runs / 2] / 1024.0;
+        System.out.printf("%-10s %-6s startup %5d ms (min %d, max %d), resident memory %.0f MB%n", module, packaging.id,
+                medianMillis, startupMillis[0], startupMillis[runs - 1], medianMegabytes);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("module", module);
+        result.put("packaging", packaging.id);
+        result.put("startupMillis", Map.of("min", startupMillis[0], "median", medianMillis, "max", startupMillis[runs - 1]));
+        result.put("residentMegabytes", residentKilobytes[runs / 2] < 0 ? null : medianMegabytes);
+        return result;
+    }
+
+    private void awaitHealthy(Process service, int port) throws IOException, InterruptedException {
+        HttpRequest health = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health")).build();
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!service.isAlive()) {
+                throw new IllegalStateException("Service on port " + port + " exited, see its log in " + output);
+            }
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(10);  // Native executables start in a fraction of a second
+        }
+        throw new IllegalStateException("Service on port " + port + " not healthy after " + STARTUP_TIMEOUT);
+    }
+
+    /**
+     * @return the resident memory of the process in kilobytes, or -1 where /proc is not available
+     */
+    private static long residentKilobytes(long pid) throws IOException {
+        Path status = Path.of("/proc", String.valueOf(pid), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return -1;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * The ways a service can be packaged, with the artifact each one runs and how to start it.
+     */
+    enum Packaging {
+        JAR("jar"),
+        AOT("aot"),
+        NATIVE("native");
+
+        private final String id;
+
+        Packaging(String id) {
+            this.id = id;
+        }
+
+        Path artifact(Path moduleDir, String module) {
+            return switch (this) {
+                case JAR -> moduleDir.resolve("target/" + module + "-1.0-SNAPSHOT-exec.jar");
+                case AOT -> moduleDir.resolve("target/aot/application.jsa");
+                case NATIVE -> moduleDir.resolve("target/" + module);
+            };
+        }
+
+        Path workingDirectory(Path moduleDir) {
+            return this == AOT ? moduleDir.resolve("target/aot") : moduleDir.resolve("target");
+        }
+
+        List<String> command(Path moduleDir, String module) {
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            return switch (this) {
+                case JAR -> List.of(java, "-jar", artifact(moduleDir, module).toString());
+                // Same relative jar path as the training run, which the CDS archive checks
+                case AOT -> List.of(java, "-XX:SharedArchiveFile=application.jsa", "-Dspring.aot.enabled=true",
+                        "-jar", module + "-1.0-SNAPSHOT-exec.jar");
+                case NATIVE -> List.of(artifact(moduleDir, module).toString());
+            };
+        }
+    }
+}
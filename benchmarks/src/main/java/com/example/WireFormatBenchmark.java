@@ -0,0 +1,71 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares encode and decode throughput of the string and binary wire formats for requests and results.
+ * The encoded sizes, which are what goes on the wire, are printed on set up.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar WireFormatBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"STRING", "BINARY"})
+    public WireFormat format;
+
+    private CalculationRequest request;
+    private CalculationReply reply;
+    private byte[] encodedRequest;
+    private byte[] encodedReply;
+
+    @Setup
+    public void setUp() {
+        String requestId = UUID.randomUUID().toString();
+        request = new CalculationRequest(requestId, "multiply", new BigDecimal("1234.5678"), new BigDecimal("-98.76"));
+        reply = new CalculationReply(requestId, "-121925.816128");
+        encodedRequest = CalculationCodec.encodeRequest(request, format);
+        encodedReply = CalculationCodec.encodeReply(reply, format);
+        System.out.printf("%n%s format: request %d bytes, result %d bytes on the wire%n",
+                format, encodedRequest.length, encodedReply.length);
+    }
+
+    @Benchmark
+    public byte[] encodeRequest() {
+        return CalculationCodec.encodeRequest(request, format);
+    }
+
+    @Benchmark
+    public CalculationRequest decodeRequest() {
+        return CalculationCodec.decodeRequest(encodedRequest);
+    }
+
+    @Benchmark
+    public byte[] encodeReply() {
+        return CalculationCodec.encodeReply(reply, format);
+    }
+
+    @Benchmark
+    public CalculationReply decodeReply() {
+        return CalculationCodec.decodeReply(encodedReply);
+    }
+}
@@ -1,80 +1,243 @@
 package com.example;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.stereotype.Service;
 
 /**
  * Service class responsible for processing calculation requests.
  * It listens for incoming calculation requests via Kafka and performs the required operation.
- * It sends the results back to Kafka or logs errors if any occur.
+ * It sends the results back to Kafka with a {@link ReplyStatus}, so the rest instance can fail a rejected or failed request
+ * at once instead of waiting for its reply timeout.
+ * Results go to the reply topic named in the request header, or to the shared results topic when the header is missing.
+ * The time each request waited in the request topic and the time spent calculating it are published as the
+ * calculator.queue.time and calculator.compute timers, and requests that cannot be answered at all as the
+ * calculator.requests.orphaned counter.
+ * The request topic is consumed by calculator.listener.concurrency listener threads, one per core by default, each
+ * owning some of its partitions, see {@link RequestListenerConfig}.
  */
 @Service
 public class CalculatorService {
-    private final KafkaTemplate<String, String> kafkaTemplate;                                    
+    private final KafkaTemplate<String, CalculationReply> kafkaTemplate;                                    
     private static final Logger logger = LoggerFactory.getLogger(CalculatorService.class);
+    private static final String RESULTS_TOPIC = "calculation-results";  // Shared topic for requests without a reply topic
+
+    @Value("${calculator.max-precision:1000}")
+    int maxPrecision;  // Largest precision a request may ask for, division cost grows with it
+
+    @Value("${calculator.aggregate.parallel-threshold:10000}")
+    int aggregateParallelThreshold;  // Smallest aggregate reduced in parallel
+
+    @Autowired
+    MeterRegistry meterRegistry;  // Receives the queue and compute time of every request
+
+    @Autowired
+    ExpressionCache expressionCache;  // Compiled expressions, see ExpressionCacheConfig
+
+    @Autowired(required = false)
+    ForkJoinPool calculationWorkers;  // Calculates the records of a poll in parallel, absent unless calculator.listener.parallel.enabled
 
     /**
      * Constructor to inject KafkaTemplate dependency.
      *
      * @param kafkaTemplate the KafkaTemplate to send messages to Kafka
      */
-    public CalculatorService(KafkaTemplate<String, String> kafkaTemplate) {
+    public CalculatorService(KafkaTemplate<String, CalculationReply> kafkaTemplate) {
         this.kafkaTemplate = kafkaTemplate;
     }
 
     /**
-     * Kafka listener method that processes incoming calculation requests.
-     * It parses the request, performs the calculation, and sends the result back to Kafka.
+     * Kafka listener method that processes incoming calculation requests in batches, one batch per consumer poll.
+     * Each request is answered as soon as it is calculated, and the producer is flushed once for the whole batch,
+     * so the results are sent in bulk before the offsets of the batch are committed.
+     * With a worker pool the records are split into one slice per worker and calculated in parallel. The listener
+     * still returns only once every record is answered, so offsets are committed in order and never ahead of a result.
      *
-     * @param message the incoming message in the format: <requestId>,<operation>,<operand1>,<operand2>
+     * @param records the incoming records, in partition order
      */
-    @KafkaListener(topics = "calculation-requests", groupId = "calculator-group")
-    public void processRequest(String message) {
-        try {
-            logger.info("Received calculation request: {}", message);
-
-            String[] parts = message.split(",");
-            if (parts.length < 4) {
-                throw new IllegalArgumentException("Invalid message format: " + message);
+    @KafkaListener(topics = "calculation-requests", groupId = "calculator-group", batch = "true",
+            concurrency = "${calculator.listener.concurrency:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+    public void processRequests(List<ConsumerRecord<String, byte[]>> records) {
+        if (calculationWorkers == null || records.size() < 2) {
+            for (ConsumerRecord<String, byte[]> record : records) {
+                processRequest(record);
             }
+        } else {
+            processInParallel(records);
+        }
+        kafkaTemplate.flush();
+    }
+
+    /**
+     * Processes contiguous slices of the records on the worker pool and waits for all of them.
+     */
+    private void processInParallel(List<ConsumerRecord<String, byte[]>> records) {
+        int slices = Math.min(records.size(), calculationWorkers.getParallelism());
+        int sliceSize = (records.size() + slices - 1) / slices;
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(slices);
+        for (int from = 0; from < records.size(); from += sliceSize) {
+            List<ConsumerRecord<String, byte[]>> slice = records.subList(from, Math.min(records.size(), from + sliceSize));
+            tasks.add(CompletableFuture.runAsync(() -> slice.forEach(this::processRequest), calculationWorkers));
+        }
+        CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+    }
 
-            // Extract the parts of the message
-            String requestId = parts[0];
-            String operation = parts[1];
-            BigDecimal a = new BigDecimal(parts[2]);
-            BigDecimal b = new BigDecimal(parts[3]);
-
-            // Perform the requested operation
-            BigDecimal result;
-            switch (operation) {
-                case "sum" -> result = a.add(b);  // Addition
-                case "subtract" -> result = a.subtract(b);  // Subtraction
-                case "multiply" -> result = a.multiply(b);  // Multiplication
-                case "divide" -> result = a.divide(b, RoundingMode.HALF_UP);  // Division with precision
-                default -> {
-                    kafkaTemplate.send("calculation-results", requestId + ",Invalid operation");
-                    logger.error("Invalid operation for requestId: {}", requestId);
-                    return;
+    /**
+     * Processes a single calculation request.
+     * It parses the request, performs every calculation it holds, and sends all the results back to Kafka in one reply.
+     * The record value is decoded here rather than by the consumer, so a message that cannot be decoded
+     * still gets an error result whenever its request ID can be recovered.
+     * A request with an invalid operation or precision is answered with {@link ReplyStatus#CLIENT_ERROR} and the reason
+     * in place of each failed result, and one that cannot be processed with {@link ReplyStatus#SERVER_ERROR}.
+     *
+     * @param record the incoming record, whose value is a calculation request in either wire format, see {@link CalculationCodec}
+     */
+    public void processRequest(ConsumerRecord<String, byte[]> record) {
+        Header replyTopicHeader = record.headers().lastHeader(KafkaHeaders.REPLY_TOPIC);
+        String replyTopic = replyTopicHeader != null
+                ? new String(replyTopicHeader.value(), StandardCharsets.UTF_8)
+                : RESULTS_TOPIC;
+        String requestId = CalculationCodec.peekRequestId(record.value());
+        recordQueueTime(record);
+        long computeStart = System.nanoTime();
+        String operation = "unknown";  // Until the request is decoded
+        boolean computed = false;
+        try {
+            // Decode the message in either wire format
+            CalculationRequest request = CalculationCodec.decodeRequest(record.value());
+            logger.info(RequestLogSampler.REQUEST, "Received calculation request: {}", request);
+
+            requestId = request.requestId();
+            operation = request.calculations().size() == 1 ? operationTag(request.calculations().get(0).operation()) : "batch";
+            List<String> results = new ArrayList<>(request.calculations().size());
+            ReplyStatus status = ReplyStatus.OK;
+            for (Calculation calculation : request.calculations()) {
+                try {
+                    results.add(calculate(calculation));
+                } catch (IllegalArgumentException | ArithmeticException e) {
+                    logger.error("Rejected calculation for requestId {}: {}", requestId, e.getMessage());
+                    results.add(e.getMessage());
+                    status = ReplyStatus.CLIENT_ERROR;
                 }
             }
+            recordComputeTime(computeStart, operation, status);
+            computed = true;
+
+            kafkaTemplate.send(replyTopic, new CalculationReply(requestId, status, results));
+            logger.info(RequestLogSampler.REQUEST, "Sent {} result for requestId {}: {}", status, requestId, results);
 
-            // Check if the result is a whole number (i.e., no decimal part)
-            if (result.stripTrailingZeros().scale() <= 0) {
-                kafkaTemplate.send("calculation-results", requestId + "," + result.toBigInteger().toString());
-            } else {
-                kafkaTemplate.send("calculation-results", requestId + "," + result.toString());
+        } catch (Exception e) {
+            if (!computed) {
+                recordComputeTime(computeStart, operation, ReplyStatus.SERVER_ERROR);
+            }
+            logger.error("Error processing Kafka message for requestId: {}", requestId, e);
+            // Without a request ID the error cannot be correlated, so it is only logged
+            if (requestId != null) {
+                sendError(replyTopic, requestId, e);
             }
-            logger.info("Sent result for requestId {}: {}", requestId, result);
+        }
+    }
 
+    /**
+     * Answers a request that could not be processed with {@link ReplyStatus#SERVER_ERROR}.
+     * When the reply cannot be sent either, for example because the request ID is not a UUID and the replies are
+     * written in the binary format, the request is logged and counted as orphaned instead. Throwing would fail the
+     * whole poll and have it redelivered, leaving the other requests of the poll unanswered.
+     */
+    private void sendError(String replyTopic, String requestId, Exception cause) {
+        try {
+            kafkaTemplate.send(replyTopic, new CalculationReply(requestId, ReplyStatus.SERVER_ERROR,
+                    List.of("Error processing Kafka message: " + cause.getMessage())));
         } catch (Exception e) {
-            kafkaTemplate.send("calculation-results", "Error processing Kafka message: " + message);
-            logger.error("Error processing Kafka message: {}", message, e);
+            meterRegistry.counter("calculator.requests.orphaned").increment();
+            logger.error("Could not send the error reply for requestId {}: {}", requestId, e.getMessage());
+        }
+    }
+
+    /**
+     * Records how long the request waited in the request topic, from the send time in its header to now.
+     * Requests from senders that do not set the header are not recorded. The sender and this instance may not share
+     * a clock, so the result is only as accurate as their clock synchronization.
+     */
+    private void recordQueueTime(ConsumerRecord<String, byte[]> record) {
+        Header sentAtHeader = record.headers().lastHeader(CalculationRequest.SENT_AT_HEADER);
+        if (sentAtHeader == null) {
+            return;
+        }
+        try {
+            long sentAt = Long.parseLong(new String(sentAtHeader.value(), StandardCharsets.UTF_8));
+            meterRegistry.timer("calculator.queue.time")
+                    .record(Math.max(0, System.currentTimeMillis() - sentAt), TimeUnit.MILLISECONDS);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid {} header: {}", CalculationRequest.SENT_AT_HEADER, e.getMessage());
+        }
+    }
+
+    private void recordComputeTime(long computeStart, String operation, ReplyStatus status) {
+        meterRegistry.timer("calculator.compute", "operation", operation, "status", status.name())
+                .record(System.nanoTime() - computeStart, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the operation as a metric tag, with every unknown operation folded into one value to bound the tag values
+     */
+    private static String operationTag(String operation) {
+        if (operation == null) {
+            return "invalid";
+        }
+        if (Expression.isExpression(operation)) {
+            return "expression";
+        }
+        if (Aggregation.isAggregate(operation)) {
+            return "aggregate";
+        }
+        return switch (operation) {
+            case "sum", "subtract", "multiply", "divide" -> operation;
+            default -> "invalid";
+        };
+    }
+
+    /**
+     * Performs a single calculation, see {@link CalculationEngine}, evaluates an expression, see {@link Expression},
+     * or aggregates an array of values, see {@link Aggregation}. Aggregates of at least calculator.aggregate.parallel-threshold
+     * values are reduced in parallel, on the worker pool when the request runs on it and on the common pool otherwise.
+     *
+     * @param calculation the operation and its operands
+     * @return the result, without decimal part if it is a whole number
+     * @throws IllegalArgumentException if the operation, the expression, the values or the precision is invalid
+     * @throws ArithmeticException if the quotient needs rounding but the rounding mode forbids it
+     */
+    private String calculate(Calculation calculation) {
+        Integer precision = calculation.precision();
+        if (precision != null && (precision < 1 || precision > maxPrecision)) {
+            throw new IllegalArgumentException("Invalid precision, must be between 1 and " + maxPrecision);
+        }
+        String result;
+        if (Expression.isExpression(calculation.operation())) {
+            result = expressionCache.evaluate(calculation);
+        } else if (Aggregation.isAggregate(calculation.operation())) {
+            result = Aggregation.aggregate(calculation, aggregateParallelThreshold);
+        } else {
+            result = CalculationEngine.calculate(calculation);
+        }
+        if (CalculationEngine.INVALID_OPERATION.equals(result)) {
+            throw new IllegalArgumentException(CalculationEngine.INVALID_OPERATION);
         }
+        return result;
     }
 }
@@ -0,0 +1,30 @@
+package com.example;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration class for the cache of compiled expressions. Its hit, miss and eviction counts are published as
+ * cache.* metrics tagged with cache=expressions.
+ */
+@Configuration
+public class ExpressionCacheConfig {
+
+    /**
+     * Creates the expression cache and binds its statistics to the meter registry.
+     *
+     * @param maximumSize the maximum number of compiled expressions kept
+     * @param meterRegistry the registry the cache metrics are published to
+     * @return the expression cache used by the calculator service
+     */
+    @Bean
+    public ExpressionCache expressionCache(@Value("${calculator.expression.cache-size:10000}") long maximumSize,
+                                           MeterRegistry meterRegistry) {
+        ExpressionCache expressionCache = new ExpressionCache(maximumSize);
+        CaffeineCacheMetrics.monitor(meterRegistry, expressionCache.cache(), "expressions");
+        return expressionCache;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+/**
+ * Configuration class for consuming the request topic in parallel.
+ * The topic is created with calculator.requests.partitions partitions, which bounds the number of listener threads
+ * that can consume it across all calculator instances, see calculator.listener.concurrency.
+ * With calculator.listener.parallel.enabled, the records of each poll are also spread over a pool of worker threads.
+ */
+@Configuration
+public class RequestListenerConfig {
+
+    static final String REQUESTS_TOPIC = "calculation-requests";
+
+    /**
+     * Creates the request topic on startup if it does not exist yet, or adds partitions to it if it has fewer.
+     *
+     * @param partitions the number of partitions of the request topic
+     * @param replicas the replication factor of the request topic
+     * @return the topic definition picked up by the KafkaAdmin
+     */
+    @Bean
+    public NewTopic requestTopicDefinition(@Value("${calculator.requests.partitions:12}") int partitions,
+                                           @Value("${calculator.requests.replicas:1}") short replicas) {
+        return TopicBuilder.name(REQUESTS_TOPIC).partitions(partitions).replicas(replicas).build();
+    }
+
+    /**
+     * Creates the pool that calculates the records of one poll in parallel. Its threads are shared by every listener
+     * thread, so calculations use at most this many cores whatever the listener concurrency.
+     *
+     * @param workers the number of worker threads, by default one per core
+     * @return the worker pool, shut down with the context
+     */
+    @Bean
+    @ConditionalOnProperty(name = "calculator.listener.parallel.enabled", havingValue = "true")
+    public ForkJoinPool calculationWorkers(
+            @Value("${calculator.listener.parallel.workers:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}") int workers) {
+        return new ForkJoinPool(workers);
+    }
+}
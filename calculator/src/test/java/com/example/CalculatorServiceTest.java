@@ -1,6 +1,24 @@
 package com.example;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.ArgumentMatchers.eq;
@@ -8,8 +26,11 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.test.context.ContextConfiguration;
 
@@ -24,11 +45,19 @@ import org.springframework.test.context.ContextConfiguration;
 public class CalculatorServiceTest {
 
     @Mock
-    private KafkaTemplate<String, String> kafkaTemplate; // Mock the KafkaTemplate to simulate interactions with Kafka
+    private KafkaTemplate<String, CalculationReply> kafkaTemplate; // Mock the KafkaTemplate to simulate interactions with Kafka
 
     @InjectMocks
     private CalculatorService calculatorService; // Inject CalculatorService with the mocked KafkaTemplate
 
+    @Autowired
+    private AutowireCapableBeanFactory beanFactory;  // Configures the service like the one of the application
+
+    @BeforeEach
+    public void setUp() {
+        beanFactory.autowireBean(calculatorService);  // Settings and collaborators of the test context
+    }
+
     /**
      * Test case for processing a sum operation.
      * Verifies that the Kafka message sent contains the correct result and requestId.
@@ -41,16 +70,16 @@ public class CalculatorServiceTest {
         String message = requestId + ",sum,10,5"; // Message format: <requestId>,<operation>,<operand1>,<operand2>
 
         // Execute the processRequest method
-        calculatorService.processRequest(message);
+        calculatorService.processRequest(record(message));
 
         // Verify KafkaTemplate interaction - checking that it sends the correct message once
-        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);  // Capture the Kafka message sent
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);  // Capture the Kafka message sent
         verify(kafkaTemplate, times(1)).send(eq("calculation-results"), captor.capture()); // Verify that send was called once with the expected topic
 
         // Assert the Kafka message contains the requestId and the correct result
-        String sentMessage = captor.getValue();
-        assertTrue(sentMessage.contains(requestId));  // Check if requestId is in the message
-        assertTrue(sentMessage.contains("15")); // Ensure the result of the sum operation (10 + 5 = 15) is included in the message
+        CalculationReply sentMessage = captor.getValue();
+        assertEquals(requestId, sentMessage.requestId());  // Check if requestId is in the message
+        assertTrue(sentMessage.results().get(0).contains("15")); // Ensure the result of the sum operation (10 + 5 = 15) is included in the message
     }
 
     /**
@@ -65,16 +94,16 @@ public class CalculatorServiceTest {
         String message = requestId + ",subtract,10,5"; // Message format: <requestId>,<operation>,<operand1>,<operand2>
 
         // Execute the processRequest method
-        calculatorService.processRequest(message);
+        calculatorService.processRequest(record(message));
 
         // Verify KafkaTemplate interaction - checking that it sends the correct message once
-        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);  // Capture the Kafka message sent
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);  // Capture the Kafka message sent
         verify(kafkaTemplate, times(1)).send(eq("calculation-results"), captor.capture()); // Verify that send was called once with the expected topic
 
         // Assert the Kafka message contains the requestId and the correct result
-        String sentMessage = captor.getValue();
-        assertTrue(sentMessage.contains(requestId));  // Check if requestId is in the message
-        assertTrue(sentMessage.contains("5")); // Ensure the result of the subtraction operation (10 - 5 = 5) is included in the message
+        CalculationReply sentMessage = captor.getValue();
+        assertEquals(requestId, sentMessage.requestId());  // Check if requestId is in the message
+        assertTrue(sentMessage.results().get(0).contains("5")); // Ensure the result of the subtraction operation (10 - 5 = 5) is included in the message
     }
 
     /**
@@ -89,16 +118,16 @@ public class CalculatorServiceTest {
         String message = requestId + ",multiply,10,5"; // Message format: <requestId>,<operation>,<operand1>,<operand2>
 
         // Execute the processRequest method
-        calculatorService.processRequest(message);
+        calculatorService.processRequest(record(message));
 
         // Verify KafkaTemplate interaction - checking that it sends the correct message once
-        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);  // Capture the Kafka message sent
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);  // Capture the Kafka message sent
         verify(kafkaTemplate, times(1)).send(eq("calculation-results"), captor.capture()); // Verify that send was called once with the expected topic
 
         // Assert the Kafka message contains the requestId and the correct result
-        String sentMessage = captor.getValue();
-        assertTrue(sentMessage.contains(requestId));  // Check if requestId is in the message
-        assertTrue(sentMessage.contains("50")); // Ensure the result of the multiplication operation (10 * 5 = 50) is included in the message
+        CalculationReply sentMessage = captor.getValue();
+        assertEquals(requestId, sentMessage.requestId());  // Check if requestId is in the message
+        assertTrue(sentMessage.results().get(0).contains("50")); // Ensure the result of the multiplication operation (10 * 5 = 50) is included in the message
     }
 
     /**
@@ -113,21 +142,21 @@ public class CalculatorServiceTest {
         String message = requestId + ",divide,10.6,5"; // Message format: <requestId>,<operation>,<operand1>,<operand2>
 
         // Execute the processRequest method
-        calculatorService.processRequest(message);
+        calculatorService.processRequest(record(message));
 
         // Verify KafkaTemplate interaction - checking that it sends the correct message once
-        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);  // Capture the Kafka message sent
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);  // Capture the Kafka message sent
         verify(kafkaTemplate, times(1)).send(eq("calculation-results"), captor.capture()); // Verify that send was called once with the expected topic
 
         // Assert the Kafka message contains the requestId and the correct result
-        String sentMessage = captor.getValue();
-        assertTrue(sentMessage.contains(requestId));  // Check if requestId is in the message
-        assertTrue(sentMessage.contains("2")); // Ensure the result of the division operation (10.6 / 5 = 2) is included in the message
+        CalculationReply sentMessage = captor.getValue();
+        assertEquals(requestId, sentMessage.requestId());  // Check if requestId is in the message
+        assertEquals("2.12", sentMessage.results().get(0)); // Ensure the result of the division operation (10.6 / 5 = 2.12) is the message
     }
 
     /**
      * Test case for processing an invalid operation.
-     * Verifies that the Kafka message sent contains the correct error message and requestId.
+     * Verifies that the Kafka message sent contains the correct error message and requestId, flagged as a client error.
      */
     @Test
     public void testProcessRequest_invalid_operation() {
@@ -137,21 +166,65 @@ public class CalculatorServiceTest {
         String message = requestId + ",invalid,10,5"; // Invalid operation
 
         // Execute the processRequest method
-        calculatorService.processRequest(message);
+        calculatorService.processRequest(record(message));
 
         // Verify KafkaTemplate interaction - checking that it sends the correct error message once
-        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);  // Capture the Kafka message sent
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);  // Capture the Kafka message sent
         verify(kafkaTemplate, times(1)).send(eq("calculation-results"), captor.capture()); // Verify that send was called once with the expected topic
 
         // Assert the Kafka message contains the requestId and the error message
-        String sentMessage = captor.getValue();
-        assertTrue(sentMessage.contains(requestId));  // Check if requestId is in the message
-        assertTrue(sentMessage.contains("Invalid operation")); // Ensure the error message is included in the message
+        CalculationReply sentMessage = captor.getValue();
+        assertEquals(requestId, sentMessage.requestId());  // Check if requestId is in the message
+        assertTrue(sentMessage.results().get(0).contains("Invalid operation")); // Ensure the error message is included in the message
+        assertEquals(ReplyStatus.CLIENT_ERROR, sentMessage.status());  // The rest instance fails the request at once
+    }
+
+    /**
+     * Test case for processing expressions.
+     * Verifies that an expression is evaluated with the operands as its variables, and that an invalid one is
+     * answered with its syntax error, flagged as a client error.
+     */
+    @Test
+    public void testProcessRequest_expression() {
+
+        // Given a valid and an invalid expression
+        calculatorService.processRequest(record("12351,=(a*b+3)/7,4,8"));
+        calculatorService.processRequest(record("12352,=(a*b,4,8"));
+
+        // Verify both replies
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);
+        verify(kafkaTemplate, times(2)).send(eq("calculation-results"), captor.capture());
+        assertEquals(new CalculationReply("12351", "5"), captor.getAllValues().get(0));
+        assertEquals(new CalculationReply("12352", ReplyStatus.CLIENT_ERROR, List.of("Missing ')' at position 4")),
+                captor.getAllValues().get(1));
+    }
+
+    /**
+     * Test case for processing aggregates.
+     * Verifies that the values carried after the operation are aggregated, and that a dot product of unpaired
+     * values is answered with the reason, flagged as a client error.
+     */
+    @Test
+    public void testProcessRequest_aggregate() {
+
+        // Given a mean, a parallel sum and an unpaired dot product
+        calculatorService.aggregateParallelThreshold = 2;
+        calculatorService.processRequest(record("12353,@mean;1;2;3;4,0,0"));
+        calculatorService.processRequest(record("12354,@sum.double;0.5;0.25,0,0"));
+        calculatorService.processRequest(record("12355,@dot;1;2;3,0,0"));
+
+        // Verify the three replies
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);
+        verify(kafkaTemplate, times(3)).send(eq("calculation-results"), captor.capture());
+        assertEquals(new CalculationReply("12353", "2.5"), captor.getAllValues().get(0));
+        assertEquals(new CalculationReply("12354", "0.75"), captor.getAllValues().get(1));
+        assertEquals(new CalculationReply("12355", ReplyStatus.CLIENT_ERROR, List.of("Dot product values must be pairs")),
+                captor.getAllValues().get(2));
     }
 
     /**
      * Test case for processing a message with an incorrect format (less than expected parts).
-     * Verifies that the Kafka message sent contains the correct error message and requestId.
+     * Verifies that the Kafka message sent contains the correct error message and requestId, flagged as a server error.
      */
     @Test
     public void testProcessRequest_three_parts() {
@@ -161,15 +234,189 @@ public class CalculatorServiceTest {
         String message = requestId + ",sum,10"; // Missing second operand
 
         // Execute the processRequest method
-        calculatorService.processRequest(message);
+        calculatorService.processRequest(record(message));
 
         // Verify KafkaTemplate interaction - checking that it sends the correct error message once
-        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);  // Capture the Kafka message sent
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);  // Capture the Kafka message sent
         verify(kafkaTemplate, times(1)).send(eq("calculation-results"), captor.capture()); // Verify that send was called once with the expected topic
 
         // Assert the Kafka message contains the requestId and error message
-        String sentMessage = captor.getValue();
-        assertTrue(sentMessage.contains(requestId));  // Check if requestId is in the message
-        assertTrue(sentMessage.contains("Error processing Kafka message")); // Ensure the error message for invalid format is included in the message
+        CalculationReply sentMessage = captor.getValue();
+        assertEquals(requestId, sentMessage.requestId());  // Check if requestId is in the message
+        assertTrue(sentMessage.results().get(0).contains("Error processing Kafka message")); // Ensure the error message for invalid format is included in the message
+        assertEquals(ReplyStatus.SERVER_ERROR, sentMessage.status());  // The rest instance fails the request at once
+    }
+
+    /**
+     * Test case for a request carrying a reply topic header.
+     * Verifies that the result is sent to the reply topic named in the header instead of the shared results topic.
+     */
+    @Test
+    public void testProcessRequest_reply_topic_header() {
+
+        // Given a sum operation sent by a rest instance with its own reply topic
+        String requestId = "12351";
+        ConsumerRecord<String, byte[]> record = record(requestId + ",sum,10,5");
+        record.headers().add(KafkaHeaders.REPLY_TOPIC, "calculation-results-rest-1".getBytes(StandardCharsets.UTF_8));
+
+        // Execute the processRequest method
+        calculatorService.processRequest(record);
+
+        // Verify the result is sent to the reply topic of that instance
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);
+        verify(kafkaTemplate, times(1)).send(eq("calculation-results-rest-1"), captor.capture());
+        assertEquals(requestId, captor.getValue().requestId());
+    }
+
+    /**
+     * Test case for a request in the binary wire format.
+     * Verifies that it is decoded and answered like a string request.
+     */
+    @Test
+    public void testProcessRequest_binary_format() {
+
+        // Given a multiplication operation encoded in the binary format
+        String requestId = UUID.randomUUID().toString();
+        byte[] message = CalculationCodec.encodeRequest(
+                new CalculationRequest(requestId, "multiply", new BigDecimal("1.3"), new BigDecimal("20")), WireFormat.BINARY);
+
+        // Execute the processRequest method
+        calculatorService.processRequest(new ConsumerRecord<>("calculation-requests", 0, 0L, null, message));
+
+        // Verify the result is sent with the requestId
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);
+        verify(kafkaTemplate, times(1)).send(eq("calculation-results"), captor.capture());
+        assertEquals(new CalculationReply(requestId, "26"), captor.getValue());
+    }
+
+    /**
+     * Test case for a batch of requests as delivered by one poll of the consumer.
+     * Verifies that every request is answered with all its results in order, and that the results are flushed once.
+     */
+    @Test
+    public void testProcessRequests_batch() {
+
+        // Given a batch request with several operations followed by a single request
+        String batchId = "12352";
+        String singleId = "12353";
+        List<ConsumerRecord<String, byte[]>> records = List.of(
+                record(batchId + ",sum,10,5,divide,10,4,invalid,1,2"),
+                record(singleId + ",multiply,10,5"));
+
+        // Execute the processRequests method
+        calculatorService.processRequests(records);
+
+        // Verify one reply per request, with the results in the order of the operations
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);
+        verify(kafkaTemplate, times(2)).send(eq("calculation-results"), captor.capture());
+        assertEquals(new CalculationReply(batchId, ReplyStatus.CLIENT_ERROR, List.of("15", "2.5", "Invalid operation")), captor.getAllValues().get(0));
+        assertEquals(new CalculationReply(singleId, "50"), captor.getAllValues().get(1));
+        verify(kafkaTemplate, times(1)).flush();
+    }
+
+    /**
+     * Test case for a batch whose replies are written in the binary format, with a request ID that is not a UUID.
+     * Verifies that the reply that cannot be encoded is counted as orphaned instead of failing the batch, and that the
+     * other requests of the batch are still answered.
+     */
+    @Test
+    public void testProcessRequests_unsendable_reply() {
+        CalculationReplySerializer serializer = new CalculationReplySerializer();
+        serializer.configure(Map.of(WireFormat.CONFIG, "binary"), false);
+        MockProducer<String, CalculationReply> producer = new MockProducer<>(true, new StringSerializer(), serializer) {
+            @Override
+            public void close(Duration timeout) {  // Shared by every send, like the producer of a real factory
+            }
+        };
+        CalculatorService binaryService = new CalculatorService(new KafkaTemplate<>(() -> producer));
+        beanFactory.autowireBean(binaryService);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        binaryService.meterRegistry = meterRegistry;
+        String firstId = UUID.randomUUID().toString();
+        String lastId = UUID.randomUUID().toString();
+        List<ConsumerRecord<String, byte[]>> records = List.of(
+                record(firstId + ",sum,10,5"),
+                record("not-a-uuid,sum,1,2"),
+                new ConsumerRecord<>("calculation-requests", 0, 2L, null, CalculationCodec.encodeRequest(
+                        new CalculationRequest(lastId, "multiply", new BigDecimal("10"), new BigDecimal("5")), WireFormat.BINARY)));
+
+        binaryService.processRequests(records);
+
+        assertEquals(List.of(new CalculationReply(firstId, "15"), new CalculationReply(lastId, "50")),
+                producer.history().stream().map(ProducerRecord::value).toList());
+        assertEquals(1.0, meterRegistry.get("calculator.requests.orphaned").counter().count());
+    }
+
+    /**
+     * Test case for processing the records of a poll on a worker pool.
+     * Verifies that every request is answered with its own result before the listener returns, and that the results
+     * are flushed once.
+     */
+    @Test
+    public void testProcessRequests_parallel() {
+        calculatorService.calculationWorkers = new ForkJoinPool(4);
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            records.add(record(i + ",sum," + i + ",1"));
+        }
+
+        calculatorService.processRequests(records);
+        calculatorService.calculationWorkers.shutdown();
+
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);
+        verify(kafkaTemplate, times(101)).send(eq("calculation-results"), captor.capture());
+        List<CalculationReply> replies = new ArrayList<>(captor.getAllValues());
+        replies.sort((x, y) -> Integer.compare(Integer.parseInt(x.requestId()), Integer.parseInt(y.requestId())));
+        for (int i = 0; i < 101; i++) {
+            assertEquals(new CalculationReply(String.valueOf(i), String.valueOf(i + 1)), replies.get(i));
+        }
+        verify(kafkaTemplate, times(1)).flush();
+    }
+
+    /**
+     * Test case for a division with its own precision and rounding.
+     * Verifies that the quotient is rounded as requested, and that a precision above the server limit and a quotient
+     * that needs rounding with UNNECESSARY are refused as client errors.
+     */
+    @Test
+    public void testProcessRequest_divide_precision() {
+        calculatorService.maxPrecision = 20;
+        String requestId = "12351";
+
+        calculatorService.processRequest(record(requestId + ",divide:5:HALF_EVEN,2,3,divide:21:,2,3,divide::UNNECESSARY,2,3"));
+
+        ArgumentCaptor<CalculationReply> captor = ArgumentCaptor.forClass(CalculationReply.class);
+        verify(kafkaTemplate, times(1)).send(eq("calculation-results"), captor.capture());
+        assertEquals(new CalculationReply(requestId, ReplyStatus.CLIENT_ERROR,
+                List.of("0.66667", "Invalid precision, must be between 1 and 20", "Rounding necessary")), captor.getValue());
+    }
+
+    /**
+     * Test case for the metrics.
+     * Verifies that the time spent in the request topic is measured from the send time header and that the compute
+     * time is recorded per operation and status.
+     */
+    @Test
+    public void testProcessRequest_metrics() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        calculatorService.meterRegistry = meterRegistry;
+        ConsumerRecord<String, byte[]> record = record("12354,sum,10,5");
+        record.headers().add(CalculationRequest.SENT_AT_HEADER,
+                Long.toString(System.currentTimeMillis() - 2000).getBytes(StandardCharsets.UTF_8));
+
+        calculatorService.processRequest(record);
+        calculatorService.processRequest(record("12355,invalid,10,5"));  // Sent without the header
+
+        assertEquals(1, meterRegistry.get("calculator.queue.time").timer().count());
+        assertTrue(meterRegistry.get("calculator.queue.time").timer().totalTime(TimeUnit.MILLISECONDS) >= 2000);
+        assertEquals(1, meterRegistry.get("calculator.compute").tags("operation", "sum", "status", "OK").timer().count());
+        assertEquals(1, meterRegistry.get("calculator.compute").tags("operation", "invalid", "status", "CLIENT_ERROR").timer().count());
+    }
+
+    /**
+     * Wraps a message in a consumer record as received from the calculation-requests topic.
+     */
+    private static ConsumerRecord<String, byte[]> record(String message) {
+        return new ConsumerRecord<>("calculation-requests", 0, 0L, null, message.getBytes(StandardCharsets.UTF_8));
     }
 }
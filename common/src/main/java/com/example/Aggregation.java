@@ -0,0 +1,235 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Aggregate operations over arrays of decimals: sum, product, mean, min, max, and the dot product of pairs.
+ * An aggregate travels to the calculator as the operation of a {@link Calculation}, prefixed with {@link #PREFIX},
+ * with the values in {@link Calculation#values()}. The values of a dot product are the pairs x1, y1, x2, y2 and so on,
+ * so both vectors arrive together and can be read in one pass.
+ *
+ * The exact mode reduces the {@link BigDecimal} values, so sums and products are exact like those of
+ * {@link CalculationEngine}, and the mean is rounded to the math context of the calculation when it does not terminate.
+ * The double mode, with {@link #DOUBLE_SUFFIX} after the name, converts every value to a double first: much cheaper
+ * than growing decimals, at the cost of binary rounding. Its sums are compensated, but their last bits may still
+ * depend on the order of the reduction.
+ * Arrays of at least the parallel threshold are reduced with a parallel stream, on the fork-join pool the caller
+ * runs in, or the common pool otherwise.
+ *
+ * A large array can be split into chunks aggregated on their own with {@link #partialOperation(String)} and
+ * combined with {@link #combine(Calculation, List, long)}, which gives the same exact result as one reduction.
+ * Exact products are refused once they grow beyond {@link #MAX_PRODUCT_DIGITS}; the double mode has no such limit.
+ */
+public final class Aggregation {
+
+    /** Prefix marking an operation as an aggregate. */
+    public static final char PREFIX = '@';
+
+    /** Suffix of the operation name selecting the double mode. */
+    public static final String DOUBLE_SUFFIX = ".double";
+
+    /** Names of the aggregate operations. */
+    public static final Set<String> OPERATIONS = Set.of("sum", "product", "mean", "min", "max", "dot");
+
+    /**
+     * Largest number of digits of an exact product, and largest scale either way. Every factor can add up to
+     * {@link CalculationEngine#MAX_OPERAND_DIGITS} digits, so without it a long product grows without bound.
+     */
+    public static final int MAX_PRODUCT_DIGITS = 10_000;
+
+    /** Smallest number of values reduced in parallel by default, below it the fork-join overhead outweighs the gain. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10_000;
+
+    /**
+     * Arithmetic of an aggregate.
+     */
+    public enum Mode {
+        /** Exact decimal arithmetic. */
+        EXACT,
+        /** Double arithmetic. */
+        DOUBLE
+    }
+
+    private Aggregation() {
+    }
+
+    /**
+     * @param operation the operation of a calculation
+     * @return whether the operation is an aggregate
+     */
+    public static boolean isAggregate(String operation) {
+        return operation != null && !operation.isEmpty() && operation.charAt(0) == PREFIX;
+    }
+
+    /**
+     * @param name the name of the aggregate operation, one of {@link #OPERATIONS}
+     * @param mode the arithmetic of the aggregate
+     * @return the operation of a calculation carrying the aggregate
+     */
+    public static String toOperation(String name, Mode mode) {
+        return PREFIX + name + (mode == Mode.DOUBLE ? DOUBLE_SUFFIX : "");
+    }
+
+    /**
+     * Returns the operation aggregating one chunk of the values: the mean of the whole array is only taken when
+     * the chunks are combined, so its chunks are summed.
+     *
+     * @param operation the operation of the whole aggregate
+     * @return the operation of each chunk, in the same mode
+     */
+    public static String partialOperation(String operation) {
+        return toOperation("mean".equals(name(operation)) ? "sum" : name(operation), mode(operation));
+    }
+
+    /**
+     * @param operation the operation of an aggregate
+     * @return whether its values are pairs, as for the dot product
+     */
+    public static boolean isPairwise(String operation) {
+        return isAggregate(operation) && "dot".equals(name(operation));
+    }
+
+    /**
+     * Aggregates the values of a calculation.
+     *
+     * @param calculation the aggregate operation and its values
+     * @param parallelThreshold the smallest number of values, or pairs, reduced in parallel
+     * @return the result, without decimal part if it is a whole number
+     * @throws IllegalArgumentException if the operation or the precision is not valid, there are no values or one is
+     *         out of range, or an exact product grows beyond {@link #MAX_PRODUCT_DIGITS}
+     * @throws ArithmeticException if the mean needs rounding with UNNECESSARY
+     */
+    public static String aggregate(Calculation calculation, int parallelThreshold) {
+        String name = validName(calculation.operation());
+        List<BigDecimal> values = calculation.values();
+        if (values == null || values.isEmpty()) {
+            throw new IllegalArgumentException("No values");
+        }
+        CalculationEngine.checkOperands(calculation);
+        boolean pairwise = "dot".equals(name);
+        if (pairwise && values.size() % 2 != 0) {
+            throw new IllegalArgumentException("Dot product values must be pairs");
+        }
+        int count = pairwise ? values.size() / 2 : values.size();
+        boolean parallel = count >= parallelThreshold;
+
+        if (mode(calculation.operation()) == Mode.DOUBLE) {
+            return format(pairwise ? dotDouble(values, count, parallel) : reduceDouble(name, doubles(values, parallel), count));
+        }
+        MathContext mathContext = CalculationEngine.mathContext(calculation);
+        return CalculationEngine.format(pairwise
+                ? dotExact(values, count, parallel)
+                : reduceExact(name, parallel ? values.parallelStream() : values.stream(), count, mathContext));
+    }
+
+    /**
+     * Combines the results of the chunks of an aggregate, each calculated with {@link #partialOperation(String)}.
+     *
+     * @param calculation the operation of the whole aggregate, with the precision and rounding of its mean
+     * @param partials the result of every chunk
+     * @param count the number of values, or pairs, over all chunks
+     * @return the result of the whole aggregate
+     * @throws IllegalArgumentException if the operation or the precision is not valid, there are no partial results,
+     *         or an exact product grows beyond {@link #MAX_PRODUCT_DIGITS}
+     * @throws ArithmeticException if the mean needs rounding with UNNECESSARY
+     */
+    public static String combine(Calculation calculation, List<String> partials, long count) {
+        String name = validName(calculation.operation());
+        if (partials.isEmpty()) {
+            throw new IllegalArgumentException("No values");
+        }
+        String combining = "mean".equals(name) || "dot".equals(name) ? "sum" : name;  // Chunks of both are sums
+        if (mode(calculation.operation()) == Mode.DOUBLE) {
+            double result = reduceDouble(combining, partials.stream().mapToDouble(Double::parseDouble), partials.size());
+            return format("mean".equals(name) ? result / count : result);
+        }
+        BigDecimal result = reduceExact(combining, partials.stream().map(BigDecimal::new), partials.size(), null);
+        return CalculationEngine.format("mean".equals(name)
+                ? result.divide(BigDecimal.valueOf(count), CalculationEngine.mathContext(calculation))
+                : result);
+    }
+
+    private static BigDecimal reduceExact(String name, Stream<BigDecimal> values, long count, MathContext mathContext) {
+        return switch (name) {
+            case "sum" -> values.reduce(BigDecimal.ZERO, BigDecimal::add);
+            case "product" -> values.reduce(BigDecimal.ONE, Aggregation::multiply);
+            case "mean" -> values.reduce(BigDecimal.ZERO, BigDecimal::add).divide(BigDecimal.valueOf(count), mathContext);
+            case "min" -> values.reduce(BigDecimal::min).orElseThrow();
+            default -> values.reduce(BigDecimal::max).orElseThrow();
+        };
+    }
+
+    /**
+     * Multiplies two factors of a product, refusing a product that outgrew {@link #MAX_PRODUCT_DIGITS}. The digits of
+     * a product never shrink as factors are added, so checking every step fails early without changing the result.
+     */
+    private static BigDecimal multiply(BigDecimal x, BigDecimal y) {
+        BigDecimal product = x.multiply(y);
+        if (product.precision() > MAX_PRODUCT_DIGITS || Math.abs((long) product.scale()) > MAX_PRODUCT_DIGITS) {
+            throw new IllegalArgumentException("Product out of range, at most " + MAX_PRODUCT_DIGITS + " digits and "
+                    + MAX_PRODUCT_DIGITS + " decimal places either way, use the DOUBLE mode for longer products");
+        }
+        return product;
+    }
+
+    private static double reduceDouble(String name, DoubleStream values, long count) {
+        return switch (name) {
+            case "sum" -> values.sum();
+            case "product" -> values.reduce(1, (x, y) -> x * y);
+            case "mean" -> values.sum() / count;
+            case "min" -> values.min().orElseThrow();
+            default -> values.max().orElseThrow();
+        };
+    }
+
+    private static BigDecimal dotExact(List<BigDecimal> values, int count, boolean parallel) {
+        return pairs(count, parallel)
+                .mapToObj(i -> values.get(2 * i).multiply(values.get(2 * i + 1)))
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    private static double dotDouble(List<BigDecimal> values, int count, boolean parallel) {
+        return pairs(count, parallel)
+                .mapToDouble(i -> values.get(2 * i).doubleValue() * values.get(2 * i + 1).doubleValue())
+                .sum();
+    }
+
+    private static DoubleStream doubles(List<BigDecimal> values, boolean parallel) {
+        return (parallel ? values.parallelStream() : values.stream()).mapToDouble(BigDecimal::doubleValue);
+    }
+
+    private static IntStream pairs(int count, boolean parallel) {
+        IntStream indices = IntStream.range(0, count);
+        return parallel ? indices.parallel() : indices;
+    }
+
+    /**
+     * Writes a double result like a decimal one, or as Infinity or NaN when it overflowed.
+     */
+    private static String format(double result) {
+        return Double.isFinite(result) ? CalculationEngine.format(BigDecimal.valueOf(result)) : Double.toString(result);
+    }
+
+    private static String validName(String operation) {
+        String name = isAggregate(operation) ? name(operation) : null;
+        if (name == null || !OPERATIONS.contains(name)) {
+            throw new IllegalArgumentException(CalculationEngine.INVALID_OPERATION);
+        }
+        return name;
+    }
+
+    private static String name(String operation) {
+        int end = operation.endsWith(DOUBLE_SUFFIX) ? operation.length() - DOUBLE_SUFFIX.length() : operation.length();
+        return operation.substring(1, end);
+    }
+
+    private static Mode mode(String operation) {
+        return operation.endsWith(DOUBLE_SUFFIX) ? Mode.DOUBLE : Mode.EXACT;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * A single operation with its operands, one of possibly several carried by a {@link CalculationRequest}.
+ *
+ * @param operation the operation to be performed (sum, subtract, multiply, or divide), an expression prefixed with
+ *                  {@link Expression#PREFIX}, or an aggregate prefixed with {@link Aggregation#PREFIX}
+ * @param a the first operand, or the variable a of an expression, zero when an expression or aggregate leaves it out
+ * @param b the second operand, or the variable b of an expression, zero when an expression or aggregate leaves it out
+ * @param precision the number of significant digits of an inexact quotient, or null for the default of {@link CalculationEngine}
+ * @param rounding the rounding mode of an inexact quotient, or null for the default of {@link CalculationEngine}
+ * @param values the values of an aggregate, or null for any other operation
+ */
+public record Calculation(String operation, BigDecimal a, BigDecimal b, Integer precision, RoundingMode rounding,
+                          List<BigDecimal> values) {
+
+    public Calculation {
+        if (Expression.isExpression(operation) || Aggregation.isAggregate(operation)) {
+            a = a != null ? a : BigDecimal.ZERO;
+            b = b != null ? b : BigDecimal.ZERO;
+        }
+    }
+
+    /**
+     * Creates a calculation of two operands.
+     */
+    public Calculation(String operation, BigDecimal a, BigDecimal b, Integer precision, RoundingMode rounding) {
+        this(operation, a, b, precision, rounding, null);
+    }
+
+    /**
+     * Creates a calculation of two operands with the default precision and rounding.
+     */
+    public Calculation(String operation, BigDecimal a, BigDecimal b) {
+        this(operation, a, b, null, null);
+    }
+
+    /**
+     * @return whether a precision or rounding mode other than the default was requested
+     */
+    public boolean hasMathContext() {
+        return precision != null || rounding != null;
+    }
+
+    /**
+     * Writes the number of values rather than the values of an aggregate, which may run into the thousands.
+     */
+    @Override
+    public String toString() {
+        return "Calculation[operation=" + operation + ", a=" + a + ", b=" + b + ", precision=" + precision
+                + ", rounding=" + rounding + (values != null ? ", values=" + values.size() : "") + "]";
+    }
+}
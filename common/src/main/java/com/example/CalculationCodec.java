@@ -0,0 +1,492 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.kafka.common.errors.SerializationException;
+
+/**
+ * Encodes and decodes calculation messages in both wire formats.
+ *
+ * The string format is the original comma separated text: <requestId>,<operation>,<operand1>,<operand2> for requests
+ * and <requestId>,<result> for results. A batch repeats <operation>,<operand1>,<operand2> for every calculation and
+ * <result> for every result, so commas in text results are written as semicolons. A calculation with its own precision
+ * or rounding writes its operation as <operation>:<precision>:<rounding>, leaving out whichever is the default.
+ * The values of an aggregate follow its operation, each after a semicolon, as in @sum;1;2.5;3.
+ * A reply that is not {@link ReplyStatus#OK} has its status after the request ID, as !CLIENT_ERROR or !SERVER_ERROR.
+ *
+ * The binary format starts with a zero magic byte, which never starts a string message, followed by a version byte
+ * and a message type byte, whose high four bits hold the ordinal of the reply status. The request ID follows as the
+ * 16 raw bytes of its UUID. A request then has a one byte opcode and both operands, each written as its zig-zag varint
+ * scale, the varint length of its unscaled value and the two's complement bytes of the unscaled value. An opcode with
+ * the math context flag set is followed by the varint precision and a rounding byte, the ordinal of the rounding mode
+ * plus one, where zero stands for the default. An opcode with the values flag set is followed by the varint number of
+ * values of an aggregate and each value written like an operand, before the operands. A result has a tag byte followed
+ * by either a decimal written like an operand or the varint length and UTF-8 bytes of a text result. Batch messages
+ * have their own types, with the varint number of calculations or results after the request ID.
+ *
+ * The version is raised with every change of the binary layout, and messages of any other version are rejected:
+ * 2 added the batch types, 3 the math context flag, 4 the reply status and 5 the values flag.
+ */
+public final class CalculationCodec {
+
+    private static final byte MAGIC = 0x00;
+    private static final byte VERSION = 5;  // Raise on every layout change, see the class comment
+    private static final byte TYPE_REQUEST = 1;
+    private static final byte TYPE_REPLY = 2;
+    private static final byte TYPE_BATCH_REQUEST = 3;
+    private static final byte TYPE_BATCH_REPLY = 4;
+    private static final byte RESULT_DECIMAL = 0;
+    private static final byte RESULT_TEXT = 1;
+    private static final int HEADER_SIZE = 3 + 16;  // Magic, version, type and request ID
+    private static final int MATH_CONTEXT_FLAG = 0x40;
+    private static final int VALUES_FLAG = 0x20;
+    private static final int TYPE_MASK = 0x0F;  // The high bits of a reply type hold its status
+    private static final int STATUS_SHIFT = 4;
+    private static final char STATUS_PREFIX = '!';
+
+    // Opcodes are the index in this array plus one, opcode 0 is followed by the operation name
+    private static final String[] OPERATIONS = {"sum", "subtract", "multiply", "divide"};
+
+    private CalculationCodec() {
+    }
+
+    /**
+     * Encodes a calculation request in the given format.
+     *
+     * @param request the request to encode
+     * @param format the wire format to use
+     * @return the encoded request
+     */
+    public static byte[] encodeRequest(CalculationRequest request, WireFormat format) {
+        List<Calculation> calculations = request.calculations();
+        if (format == WireFormat.STRING) {
+            StringBuilder message = new StringBuilder(request.requestId());
+            for (Calculation calculation : calculations) {
+                message.append(',').append(calculation.operation());
+                if (calculation.hasMathContext()) {
+                    message.append(':').append(calculation.precision() != null ? calculation.precision() : "")
+                            .append(':').append(calculation.rounding() != null ? calculation.rounding() : "");
+                }
+                if (calculation.values() != null) {
+                    for (BigDecimal value : calculation.values()) {
+                        message.append(';').append(value);
+                    }
+                }
+                message.append(',').append(calculation.a())
+                        .append(',').append(calculation.b());
+            }
+            return message.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        boolean batch = calculations.size() != 1;
+        int size = HEADER_SIZE + (batch ? varintSize(calculations.size()) : 0);
+        for (Calculation calculation : calculations) {
+            size += calculationSize(calculation);
+        }
+        ByteBuffer buffer = header(batch ? TYPE_BATCH_REQUEST : TYPE_REQUEST, request.requestId(), size);
+        if (batch) {
+            writeVarint(buffer, calculations.size());
+        }
+        for (Calculation calculation : calculations) {
+            writeCalculation(buffer, calculation);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a calculation request, detecting its wire format.
+     *
+     * @param data the encoded request
+     * @return the decoded request
+     * @throws SerializationException if the data is not a valid request
+     */
+    public static CalculationRequest decodeRequest(byte[] data) {
+        try {
+            if (!isBinary(data)) {
+                String message = new String(data, StandardCharsets.UTF_8);
+                String[] parts = message.split(",");
+                if (parts.length < 4 || (parts.length - 1) % 3 != 0) {
+                    throw new SerializationException("Invalid message format: " + message);
+                }
+                List<Calculation> calculations = new ArrayList<>((parts.length - 1) / 3);
+                for (int i = 1; i < parts.length; i += 3) {
+                    calculations.add(parseCalculation(parts[i], new BigDecimal(parts[i + 1]), new BigDecimal(parts[i + 2])));
+                }
+                return new CalculationRequest(parts[0], calculations);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            boolean batch = (readHeader(buffer, TYPE_REQUEST, TYPE_BATCH_REQUEST) & TYPE_MASK) == TYPE_BATCH_REQUEST;
+            String requestId = readRequestId(buffer);
+            int count = batch ? readLength(buffer) : 1;  // Every calculation takes at least one byte
+            List<Calculation> calculations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                calculations.add(readCalculation(buffer, requestId));
+            }
+            return new CalculationRequest(requestId, calculations);
+        } catch (SerializationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new SerializationException("Invalid calculation request", e);
+        }
+    }
+
+    /**
+     * Encodes a calculation result in the given format.
+     *
+     * @param reply the result to encode
+     * @param format the wire format to use
+     * @return the encoded result
+     */
+    public static byte[] encodeReply(CalculationReply reply, WireFormat format) {
+        List<String> results = reply.results();
+        if (format == WireFormat.STRING) {
+            StringBuilder message = new StringBuilder(reply.requestId());
+            if (reply.status() != ReplyStatus.OK) {
+                message.append(',').append(STATUS_PREFIX).append(reply.status());
+            }
+            for (String result : results) {
+                message.append(',').append(result.replace(',', ';'));
+            }
+            return message.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        boolean batch = results.size() != 1;
+        Object[] encoded = new Object[results.size()];  // Decimal or UTF-8 bytes of each result
+        int size = HEADER_SIZE + (batch ? varintSize(results.size()) : 0);
+        for (int i = 0; i < encoded.length; i++) {
+            BigDecimal decimal = parseDecimal(results.get(i));
+            if (decimal != null) {
+                encoded[i] = decimal;
+                size += 1 + decimalSize(decimal.scale(), decimal.unscaledValue());
+            } else {
+                byte[] text = results.get(i).getBytes(StandardCharsets.UTF_8);
+                encoded[i] = text;
+                size += 1 + varintSize(text.length) + text.length;
+            }
+        }
+        byte type = (byte) ((batch ? TYPE_BATCH_REPLY : TYPE_REPLY) | reply.status().ordinal() << STATUS_SHIFT);
+        ByteBuffer buffer = header(type, reply.requestId(), size);
+        if (batch) {
+            writeVarint(buffer, results.size());
+        }
+        for (Object result : encoded) {
+            if (result instanceof BigDecimal decimal) {
+                buffer.put(RESULT_DECIMAL);
+                writeDecimal(buffer, decimal.scale(), decimal.unscaledValue());
+            } else {
+                byte[] text = (byte[]) result;
+                buffer.put(RESULT_TEXT);
+                writeVarint(buffer, text.length);
+                buffer.put(text);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a calculation result, detecting its wire format.
+     *
+     * @param data the encoded result
+     * @return the decoded result
+     * @throws SerializationException if the data is not a valid result
+     */
+    public static CalculationReply decodeReply(byte[] data) {
+        try {
+            if (!isBinary(data)) {
+                String message = new String(data, StandardCharsets.UTF_8);
+                String[] parts = message.split(",", -1);
+                if (parts.length < 2) {
+                    throw new SerializationException("Invalid message format: " + message);
+                }
+                if (parts.length > 2 && !parts[1].isEmpty() && parts[1].charAt(0) == STATUS_PREFIX) {
+                    return new CalculationReply(parts[0], ReplyStatus.valueOf(parts[1].substring(1)),
+                            List.of(parts).subList(2, parts.length));
+                }
+                return new CalculationReply(parts[0], List.of(parts).subList(1, parts.length));
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            byte type = readHeader(buffer, TYPE_REPLY, TYPE_BATCH_REPLY);
+            boolean batch = (type & TYPE_MASK) == TYPE_BATCH_REPLY;
+            ReplyStatus status = ReplyStatus.values()[type >>> STATUS_SHIFT];
+            String requestId = readRequestId(buffer);
+            int count = batch ? readLength(buffer) : 1;  // Every result takes at least one byte
+            List<String> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte tag = buffer.get();
+                results.add(switch (tag) {
+                    case RESULT_DECIMAL -> readDecimal(buffer).toString();
+                    case RESULT_TEXT -> readText(buffer);
+                    default -> throw new SerializationException("Unknown result tag " + tag + " in result " + requestId);
+                });
+            }
+            return new CalculationReply(requestId, status, results);
+        } catch (SerializationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new SerializationException("Invalid calculation result", e);
+        }
+    }
+
+    /**
+     * Extracts the request ID from a message that could not be decoded, so an error can still be correlated.
+     *
+     * @param data the encoded message
+     * @return the request ID, or null if the message is too damaged to contain one
+     */
+    public static String peekRequestId(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        if (!isBinary(data)) {
+            String message = new String(data, StandardCharsets.UTF_8);
+            int separator = message.indexOf(',');
+            return separator > 0 ? message.substring(0, separator) : null;
+        }
+        if (data.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 3, 16);
+        return readRequestId(buffer);
+    }
+
+    private static boolean isBinary(byte[] data) {
+        return data.length > 0 && data[0] == MAGIC;
+    }
+
+    private static int opcode(String operation) {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (OPERATIONS[i].equals(operation)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static ByteBuffer header(byte type, String requestId, int size) {
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(requestId);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("Request ID is not a UUID: " + requestId, e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC).put(VERSION).put(type);
+        buffer.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        return buffer;
+    }
+
+    private static byte readHeader(ByteBuffer buffer, byte single, byte batch) {
+        buffer.get();  // Magic
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new SerializationException("Unsupported wire format version " + version);
+        }
+        byte type = buffer.get();
+        if ((type & TYPE_MASK) != single && (type & TYPE_MASK) != batch) {
+            throw new SerializationException("Unexpected message type " + type);
+        }
+        return type;
+    }
+
+    private static String readRequestId(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
+
+    private static String readText(ByteBuffer buffer) {
+        byte[] text = new byte[readLength(buffer)];
+        buffer.get(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    private static Calculation parseCalculation(String operation, BigDecimal a, BigDecimal b) {
+        List<BigDecimal> values = null;
+        int valuesStart = operation.indexOf(';');
+        if (valuesStart >= 0) {
+            String[] parts = operation.substring(valuesStart + 1).split(";");
+            values = new ArrayList<>(parts.length);
+            for (String part : parts) {
+                values.add(new BigDecimal(part));
+            }
+            operation = operation.substring(0, valuesStart);
+        }
+        if (operation.indexOf(':') < 0) {
+            return new Calculation(operation, a, b, null, null, values);
+        }
+        String[] context = operation.split(":", -1);
+        if (context.length != 3) {
+            throw new SerializationException("Invalid operation: " + operation);
+        }
+        return new Calculation(context[0], a, b,
+                context[1].isEmpty() ? null : Integer.valueOf(context[1]),
+                context[2].isEmpty() ? null : RoundingMode.valueOf(context[2]),
+                values);
+    }
+
+    private static int calculationSize(Calculation calculation) {
+        int opcode = opcode(calculation.operation());
+        int size = 1 + decimalSize(calculation.a().scale(), calculation.a().unscaledValue())
+                + decimalSize(calculation.b().scale(), calculation.b().unscaledValue());
+        if (opcode == 0) {
+            int length = calculation.operation().getBytes(StandardCharsets.UTF_8).length;
+            size += varintSize(length) + length;
+        }
+        if (calculation.hasMathContext()) {
+            size += varintSize(calculation.precision() != null ? calculation.precision() : 0) + 1;
+        }
+        if (calculation.values() != null) {
+            size += varintSize(calculation.values().size());
+            for (BigDecimal value : calculation.values()) {
+                size += decimalSize(value.scale(), value.unscaledValue());
+            }
+        }
+        return size;
+    }
+
+    private static void writeCalculation(ByteBuffer buffer, Calculation calculation) {
+        int opcode = opcode(calculation.operation());
+        buffer.put((byte) (opcode | (calculation.hasMathContext() ? MATH_CONTEXT_FLAG : 0)
+                | (calculation.values() != null ? VALUES_FLAG : 0)));
+        if (opcode == 0) {
+            byte[] name = calculation.operation().getBytes(StandardCharsets.UTF_8);
+            writeVarint(buffer, name.length);
+            buffer.put(name);
+        }
+        if (calculation.hasMathContext()) {
+            writeVarint(buffer, calculation.precision() != null ? calculation.precision() : 0);
+            buffer.put((byte) (calculation.rounding() != null ? calculation.rounding().ordinal() + 1 : 0));
+        }
+        if (calculation.values() != null) {
+            writeVarint(buffer, calculation.values().size());
+            for (BigDecimal value : calculation.values()) {
+                writeDecimal(buffer, value.scale(), value.unscaledValue());
+            }
+        }
+        writeDecimal(buffer, calculation.a().scale(), calculation.a().unscaledValue());
+        writeDecimal(buffer, calculation.b().scale(), calculation.b().unscaledValue());
+    }
+
+    private static Calculation readCalculation(ByteBuffer buffer, String requestId) {
+        int flags = buffer.get();
+        int opcode = flags & ~(MATH_CONTEXT_FLAG | VALUES_FLAG);
+        String operation;
+        if (opcode > 0 && opcode <= OPERATIONS.length) {
+            operation = OPERATIONS[opcode - 1];
+        } else if (opcode == 0) {
+            operation = readText(buffer);
+        } else {
+            throw new SerializationException("Unknown opcode " + opcode + " in request " + requestId);
+        }
+        Integer precision = null;
+        RoundingMode rounding = null;
+        if ((flags & MATH_CONTEXT_FLAG) != 0) {
+            int precisionValue = readVarint(buffer);
+            int roundingValue = buffer.get();
+            precision = precisionValue == 0 ? null : precisionValue;
+            rounding = roundingValue == 0 ? null : RoundingMode.values()[roundingValue - 1];
+        }
+        List<BigDecimal> values = null;
+        if ((flags & VALUES_FLAG) != 0) {
+            int count = readLength(buffer);  // Every value takes at least one byte
+            values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readDecimal(buffer));
+            }
+        }
+        return new Calculation(operation, readDecimal(buffer), readDecimal(buffer), precision, rounding, values);
+    }
+
+    private static BigDecimal parseDecimal(String value) {
+        if (value == null || value.isEmpty() || !(Character.isDigit(value.charAt(0)) || value.charAt(0) == '-')) {
+            return null;
+        }
+        try {
+            BigDecimal decimal = new BigDecimal(value);
+            return decimal.toString().equals(value) ? decimal : null;  // Only if the text survives the round trip
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int decimalSize(int scale, BigInteger unscaled) {
+        int length = unscaled.bitLength() / 8 + 1;
+        return varintSize(zigZag(scale)) + varintSize(length) + length;
+    }
+
+    private static void writeDecimal(ByteBuffer buffer, int scale, BigInteger unscaled) {
+        byte[] bytes = unscaled.toByteArray();
+        writeVarint(buffer, zigZag(scale));
+        writeVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer buffer) {
+        int zigZagScale = readVarint(buffer);
+        int scale = (zigZagScale >>> 1) ^ -(zigZagScale & 1);
+        int length = readLength(buffer);
+        if (length == 0) {
+            throw new SerializationException("Empty decimal");
+        }
+        if (length <= Long.BYTES) {
+            long unscaled = buffer.get();  // Sign extended
+            for (int i = 1; i < length; i++) {
+                unscaled = (unscaled << 8) | (buffer.get() & 0xFF);
+            }
+            return BigDecimal.valueOf(unscaled, scale);  // Small values never go through a BigInteger
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new BigDecimal(new BigInteger(bytes), scale);
+    }
+
+    /**
+     * Reads a length or a count of elements taking at least one byte each, before anything is allocated for it,
+     * so a damaged or hostile message cannot make the decoder allocate more than the message holds.
+     *
+     * @throws SerializationException if the length is negative or larger than the bytes left in the buffer
+     */
+    private static int readLength(ByteBuffer buffer) {
+        int length = readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new SerializationException("Length " + length + " exceeds the " + buffer.remaining() + " bytes left");
+        }
+        return length;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new SerializationException("Malformed varint");
+    }
+}
@@ -0,0 +1,263 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Arithmetic behind every calculation, shared by the calculator service and the local execution modes of the rest module,
+ * so a calculation gives the same result wherever it runs.
+ * Operands of up to 18 digits with a scale between 0 and 18 are calculated on their unscaled long values and the result
+ * is written straight to text, falling back to {@link BigDecimal} for larger operands, overflows and inexact quotients.
+ * Both paths give the same result: sums, differences and products are exact, and quotients are exact when they
+ * terminate within the precision of the calculation, or rounded to it otherwise, by default half up to 34 significant digits.
+ */
+public final class CalculationEngine {
+
+    public static final String INVALID_OPERATION = "Invalid operation";
+    public static final int DEFAULT_PRECISION = 34;
+    public static final RoundingMode DEFAULT_ROUNDING = RoundingMode.HALF_UP;
+    /** Largest number of digits of an operand, and largest scale either way, see {@link #checkOperands(Calculation)}. */
+    public static final int MAX_OPERAND_DIGITS = 1000;
+
+    private static final MathContext DEFAULT_CONTEXT = new MathContext(DEFAULT_PRECISION, DEFAULT_ROUNDING);
+    private static final int MAX_FAST_DIGITS = 18;  // Every value of up to 18 digits fits in a long
+    private static final long[] POWERS_OF_TEN = new long[MAX_FAST_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private CalculationEngine() {
+    }
+
+    /**
+     * Performs a single calculation.
+     *
+     * @param calculation the operation and its operands
+     * @return the result, without decimal part if it is a whole number, or {@link #INVALID_OPERATION} for an unknown operation
+     * @throws ArithmeticException if the calculation divides by zero, or needs rounding with {@link RoundingMode#UNNECESSARY}
+     * @throws IllegalArgumentException if the precision is not positive or an operand is out of range
+     */
+    public static String calculate(Calculation calculation) {
+        checkOperands(calculation);
+        BigDecimal a = calculation.a();
+        BigDecimal b = calculation.b();
+        char operation;
+        switch (calculation.operation()) {
+            case "sum" -> operation = '+';
+            case "subtract" -> operation = '-';
+            case "multiply" -> operation = '*';
+            case "divide" -> operation = '/';
+            default -> {
+                return INVALID_OPERATION;
+            }
+        }
+
+        MathContext mathContext = mathContext(calculation);
+        // Any quotient of two longs fits in 19 digits, so a smaller precision could need rounding
+        boolean fast = operation != '/' || mathContext.getPrecision() > MAX_FAST_DIGITS;
+        if (fast && fitsLong(a) && fitsLong(b)) {
+            String result = calculateLong(operation, unscaledLong(a), a.scale(), unscaledLong(b), b.scale());
+            if (result != null) {
+                return result;
+            }
+        }
+        return format(calculateBig(operation, a, b, mathContext));
+    }
+
+    /**
+     * Checks that the operands and values of a calculation have at most {@link #MAX_OPERAND_DIGITS} digits and a scale
+     * within as many places either way. An exponent such as 1e-999999999 would otherwise make a sum align both operands
+     * to a billion digits, and writing 1e999999999 as a whole number would take as many.
+     *
+     * @param calculation the calculation to check, its operands and values may be null
+     * @throws IllegalArgumentException if an operand or value is out of range
+     */
+    public static void checkOperands(Calculation calculation) {
+        checkOperand(calculation.a());
+        checkOperand(calculation.b());
+        if (calculation.values() != null) {
+            calculation.values().forEach(CalculationEngine::checkOperand);
+        }
+    }
+
+    /**
+     * @return the reason the operand is out of range, or null if it is within range or null
+     */
+    public static String operandError(BigDecimal operand) {
+        if (operand != null && (operand.precision() > MAX_OPERAND_DIGITS || Math.abs((long) operand.scale()) > MAX_OPERAND_DIGITS)) {
+            return "Operand out of range, at most " + MAX_OPERAND_DIGITS + " digits and " + MAX_OPERAND_DIGITS + " decimal places either way";
+        }
+        return null;
+    }
+
+    private static void checkOperand(BigDecimal operand) {
+        String error = operandError(operand);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    /**
+     * @return the context quotients of the calculation are rounded with
+     * @throws IllegalArgumentException if the precision is not positive
+     */
+    public static MathContext mathContext(Calculation calculation) {
+        if (!calculation.hasMathContext()) {
+            return DEFAULT_CONTEXT;
+        }
+        int precision = calculation.precision() != null ? calculation.precision() : DEFAULT_PRECISION;
+        if (precision < 1) {
+            throw new IllegalArgumentException("Precision must be positive: " + precision);
+        }
+        return new MathContext(precision, calculation.rounding() != null ? calculation.rounding() : DEFAULT_ROUNDING);
+    }
+
+    /**
+     * Fast path on unscaled long values.
+     *
+     * @return the formatted result, or null if it cannot be calculated exactly in a long
+     */
+    private static String calculateLong(char operation, long a, int scaleA, long b, int scaleB) {
+        try {
+            switch (operation) {
+                case '+', '-' -> {
+                    int scale = Math.max(scaleA, scaleB);  // Align both operands to the larger scale
+                    long alignedA = Math.multiplyExact(a, POWERS_OF_TEN[scale - scaleA]);
+                    long alignedB = Math.multiplyExact(b, POWERS_OF_TEN[scale - scaleB]);
+                    long result = operation == '+' ? Math.addExact(alignedA, alignedB) : Math.subtractExact(alignedA, alignedB);
+                    return format(result, scale);
+                }
+                case '*' -> {
+                    return format(Math.multiplyExact(a, b), scaleA + scaleB);
+                }
+                default -> {
+                    return divideLong(a, scaleA, b, scaleB);
+                }
+            }
+        } catch (ArithmeticException e) {
+            return null;  // Overflow
+        }
+    }
+
+    /**
+     * Exact division on unscaled long values. The quotient terminates when the reduced divisor has no prime factors
+     * other than 2 and 5, and then needs as many extra decimal places as the larger of their exponents.
+     *
+     * @return the formatted quotient, or null if it does not terminate, overflows, or the divisor is zero
+     */
+    private static String divideLong(long a, int scaleA, long b, int scaleB) {
+        if (b == 0) {
+            return null;  // Let BigDecimal report the division by zero
+        }
+        long gcd = gcd(Math.abs(a), Math.abs(b));
+        long numerator = b < 0 ? -a / gcd : a / gcd;
+        long denominator = Math.abs(b) / gcd;
+
+        int twos = Long.numberOfTrailingZeros(denominator);
+        long rest = denominator >> twos;
+        int fives = 0;
+        while (rest % 5 == 0) {
+            rest /= 5;
+            fives++;
+        }
+        int places = Math.max(twos, fives);
+        if (rest != 1 || places > MAX_FAST_DIGITS) {
+            return null;
+        }
+        long quotient = Math.multiplyExact(numerator, POWERS_OF_TEN[places] / denominator);
+        return format(quotient, scaleA - scaleB + places);
+    }
+
+    private static BigDecimal calculateBig(char operation, BigDecimal a, BigDecimal b, MathContext mathContext) {
+        return switch (operation) {
+            case '+' -> a.add(b);  // Addition
+            case '-' -> a.subtract(b);  // Subtraction
+            case '*' -> a.multiply(b);  // Multiplication
+            default -> a.divide(b, mathContext);  // Division, exact when the quotient terminates within the precision
+        };
+    }
+
+    /**
+     * Writes an unscaled long value with the given scale the way {@link #format(BigDecimal)} would, without creating it.
+     */
+    private static String format(long unscaled, int scale) {
+        if (unscaled == Long.MIN_VALUE || scale > MAX_FAST_DIGITS) {
+            return format(BigDecimal.valueOf(unscaled, scale));
+        }
+        if (scale <= 0) {
+            return Long.toString(Math.multiplyExact(unscaled, POWERS_OF_TEN[-scale]));  // Whole number
+        }
+        if (unscaled % POWERS_OF_TEN[scale] == 0) {
+            return Long.toString(unscaled / POWERS_OF_TEN[scale]);  // Whole number, drop the decimal part
+        }
+
+        long magnitude = Math.abs(unscaled);
+        int digits = digits(magnitude);
+        if (digits - 1 - scale < -6) {
+            return BigDecimal.valueOf(unscaled, scale).toString();  // BigDecimal switches to scientific notation
+        }
+
+        // Plain notation: sign, integer part (at least one digit), point, then exactly 'scale' decimals
+        int integerDigits = Math.max(digits - scale, 1);
+        int length = (unscaled < 0 ? 1 : 0) + integerDigits + 1 + scale;
+        char[] chars = new char[length];
+        int position = length;
+        for (int i = 0; i < scale; i++) {
+            chars[--position] = (char) ('0' + magnitude % 10);
+            magnitude /= 10;
+        }
+        chars[--position] = '.';
+        for (int i = 0; i < integerDigits; i++) {
+            chars[--position] = (char) ('0' + magnitude % 10);
+            magnitude /= 10;
+        }
+        if (unscaled < 0) {
+            chars[--position] = '-';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Writes a result without decimal part if it is a whole number.
+     */
+    static String format(BigDecimal result) {
+        // Check if the result is a whole number (i.e., no decimal part). Its unscaled value then has at least 'scale'
+        // trailing zero bits, which rules out most fractions before the costlier remainder
+        if (result.signum() == 0 || result.scale() <= 0
+                || (result.unscaledValue().getLowestSetBit() >= result.scale() && result.remainder(BigDecimal.ONE).signum() == 0)) {
+            return result.toBigInteger().toString();
+        }
+        return result.toString();
+    }
+
+    private static boolean fitsLong(BigDecimal value) {
+        return value.scale() >= 0 && value.scale() <= MAX_FAST_DIGITS && value.precision() <= MAX_FAST_DIGITS;
+    }
+
+    private static long unscaledLong(BigDecimal value) {
+        // Moving the point to the end keeps the compact long representation, unlike unscaledValue()
+        return value.scale() == 0 ? value.longValue() : value.scaleByPowerOfTen(value.scale()).longValue();
+    }
+
+    private static int digits(long magnitude) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && magnitude >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example;
+
+import java.util.List;
+
+/**
+ * A calculation result sent from the calculator back to the rest instance that made the request.
+ * It holds one result per calculation of the request, in the same order, unless the request failed as a whole,
+ * in which case it holds a single error message.
+ *
+ * @param requestId the ID of the request these results belong to
+ * @param status whether the request succeeded, was rejected or failed
+ * @param results the result of each calculation, or an error message
+ */
+public record CalculationReply(String requestId, ReplyStatus status, List<String> results) {
+
+    /**
+     * Creates a successful reply.
+     *
+     * @param requestId the ID of the request these results belong to
+     * @param results the result of each calculation
+     */
+    public CalculationReply(String requestId, List<String> results) {
+        this(requestId, ReplyStatus.OK, results);
+    }
+
+    /**
+     * Creates a successful reply with a single result.
+     *
+     * @param requestId the ID of the request this result belongs to
+     * @param result the result of the calculation
+     */
+    public CalculationReply(String requestId, String result) {
+        this(requestId, ReplyStatus.OK, List.of(result));
+    }
+}
@@ -0,0 +1,15 @@
+package com.example;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Kafka deserializer for {@link CalculationReply} values.
+ * It reads both wire formats, so producers can switch formats while consumers keep running.
+ */
+public class CalculationReplyDeserializer implements Deserializer<CalculationReply> {
+
+    @Override
+    public CalculationReply deserialize(String topic, byte[] data) {
+        return data == null ? null : CalculationCodec.decodeReply(data);
+    }
+}
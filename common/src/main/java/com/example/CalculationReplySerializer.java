@@ -0,0 +1,24 @@
+package com.example;
+
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Kafka serializer for {@link CalculationReply} values.
+ * The wire format is chosen with the {@value WireFormat#CONFIG} producer property and defaults to the string format.
+ */
+public class CalculationReplySerializer implements Serializer<CalculationReply> {
+
+    private WireFormat format = WireFormat.STRING;
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        format = WireFormat.from(configs);
+    }
+
+    @Override
+    public byte[] serialize(String topic, CalculationReply data) {
+        return data == null ? null : CalculationCodec.encodeReply(data, format);
+    }
+}
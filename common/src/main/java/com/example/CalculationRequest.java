@@ -0,0 +1,29 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * A calculation request sent from the rest module to the calculator on the calculation-requests topic.
+ * A batch request carries several calculations, which are answered together in a single {@link CalculationReply}.
+ *
+ * @param requestId the unique ID used to correlate the result with the pending request
+ * @param calculations the calculations to perform, in order
+ */
+public record CalculationRequest(String requestId, List<Calculation> calculations) {
+
+    /** Kafka header holding the epoch milliseconds at which the request was sent, to measure its time in the topic. */
+    public static final String SENT_AT_HEADER = "calculation-sent-at";
+
+    /**
+     * Creates a request for a single calculation.
+     *
+     * @param requestId the unique ID used to correlate the result with the pending request
+     * @param operation the operation to be performed (sum, subtract, multiply, or divide)
+     * @param a the first operand
+     * @param b the second operand
+     */
+    public CalculationRequest(String requestId, String operation, BigDecimal a, BigDecimal b) {
+        this(requestId, List.of(new Calculation(operation, a, b)));
+    }
+}
@@ -0,0 +1,15 @@
+package com.example;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Kafka deserializer for {@link CalculationRequest} values.
+ * It reads both wire formats, so producers can switch formats while consumers keep running.
+ */
+public class CalculationRequestDeserializer implements Deserializer<CalculationRequest> {
+
+    @Override
+    public CalculationRequest deserialize(String topic, byte[] data) {
+        return data == null ? null : CalculationCodec.decodeRequest(data);
+    }
+}
@@ -0,0 +1,24 @@
+package com.example;
+
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Kafka serializer for {@link CalculationRequest} values.
+ * The wire format is chosen with the {@value WireFormat#CONFIG} producer property and defaults to the string format.
+ */
+public class CalculationRequestSerializer implements Serializer<CalculationRequest> {
+
+    private WireFormat format = WireFormat.STRING;
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        format = WireFormat.from(configs);
+    }
+
+    @Override
+    public byte[] serialize(String topic, CalculationRequest data) {
+        return data == null ? null : CalculationCodec.encodeRequest(data, format);
+    }
+}
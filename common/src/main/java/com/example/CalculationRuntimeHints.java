@@ -0,0 +1,41 @@
+package com.example;
+
+import java.util.List;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * Reflection hints for the GraalVM native images of the calculator and rest services, registered for both through
+ * META-INF/spring/aot.factories. Spring AOT cannot see these uses of reflection, because the classes are only named
+ * in configuration:
+ * <ul>
+ *     <li>Kafka creates the serializers and deserializers named in the spring.kafka.* properties, including the
+ *     delegate of the ErrorHandlingDeserializer, with their no-argument constructor.</li>
+ *     <li>The @KafkaListener methods of CalculatorService and KafkaCalculationExecutor are invoked reflectively by
+ *     their listener containers. Each is registered when its module is on the classpath.</li>
+ *     <li>Logback creates the RequestLogSampler of logback-spring.xml and sets its sampleRate.</li>
+ * </ul>
+ */
+public class CalculationRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final List<Class<?>> SERIALIZERS = List.of(
+            CalculationRequestSerializer.class, CalculationRequestDeserializer.class,
+            CalculationReplySerializer.class, CalculationReplyDeserializer.class);
+
+    private static final List<String> LISTENERS = List.of(
+            "com.example.CalculatorService", "com.example.KafkaCalculationExecutor");
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (Class<?> serializer : SERIALIZERS) {
+            hints.reflection().registerType(serializer, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+        for (String listener : LISTENERS) {
+            hints.reflection().registerTypeIfPresent(classLoader, listener, MemberCategory.INVOKE_PUBLIC_METHODS);
+        }
+        hints.reflection().registerType(RequestLogSampler.class,
+                MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS, MemberCategory.INVOKE_PUBLIC_METHODS);
+    }
+}
@@ -0,0 +1,325 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An arithmetic expression compiled to postfix code, such as (a * b + 3) / 7.
+ * Expressions hold decimal numbers, the variables a and b, parentheses and the four operations with the usual
+ * precedence: unary minus first, then multiplication and division, then addition and subtraction, each left to right.
+ * Compiling parses the text once and folds the constant sums, differences and products, so evaluating only walks
+ * an int array over a small stack. Evaluation follows {@link CalculationEngine}: every operation is exact except
+ * division, which is rounded to the math context when the quotient does not terminate within it.
+ *
+ * An expression travels to the calculator as the operation of a {@link Calculation}, prefixed with {@link #PREFIX},
+ * with a and b as its operands. Its text may not hold commas or colons, so it fits in either wire format unchanged.
+ */
+public final class Expression {
+
+    /** Prefix marking an operation as an expression. */
+    public static final char PREFIX = '=';
+
+    /** Longest expression text accepted, which bounds the parse time and the memory of cached expressions. */
+    public static final int MAX_LENGTH = 1000;
+
+    private static final int CONST = 0;
+    private static final int LOAD_A = 1;
+    private static final int LOAD_B = 2;
+    private static final int ADD = 3;
+    private static final int SUBTRACT = 4;
+    private static final int MULTIPLY = 5;
+    private static final int DIVIDE = 6;
+    private static final int NEGATE = 7;
+    private static final int OPCODE_BITS = 8;  // The constant index of CONST sits above the opcode
+
+    private final int[] code;
+    private final BigDecimal[] constants;
+    private final int maxStack;
+
+    private Expression(int[] code, BigDecimal[] constants, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * @param operation the operation of a calculation
+     * @return whether the operation is an expression
+     */
+    public static boolean isExpression(String operation) {
+        return operation != null && !operation.isEmpty() && operation.charAt(0) == PREFIX;
+    }
+
+    /**
+     * Turns an expression into the operation of a calculation, trimming it and collapsing each run of whitespace to one
+     * space, so equally spaced expressions share one text while adjacent numbers like "1 2" stay apart and are rejected.
+     *
+     * @param text the expression
+     * @return the operation carrying the expression
+     */
+    public static String toOperation(String text) {
+        StringBuilder operation = new StringBuilder(text.length() + 1).append(PREFIX);
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = operation.length() > 1;
+            } else {
+                if (space) {
+                    operation.append(' ');
+                    space = false;
+                }
+                operation.append(c);
+            }
+        }
+        return operation.toString();
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @param text the expression, with or without the {@link #PREFIX}
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the expression is empty, too long or not valid
+     */
+    public static Expression compile(String text) {
+        String source = isExpression(text) ? text.substring(1) : text;
+        if (source.isBlank()) {
+            throw new IllegalArgumentException("Empty expression");
+        }
+        if (source.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("Expression longer than " + MAX_LENGTH + " characters");
+        }
+        Parser parser = new Parser(source);
+        Node root = parser.parseExpression();
+        parser.skipWhitespace();
+        if (parser.position < source.length()) {
+            throw parser.error("Unexpected '" + source.charAt(parser.position) + "'");
+        }
+
+        Emitter emitter = new Emitter();
+        emitter.emit(root);
+        return new Expression(emitter.code.stream().mapToInt(Integer::intValue).toArray(),
+                emitter.constants.toArray(BigDecimal[]::new), emitter.maxDepth);
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param a the value of the variable a
+     * @param b the value of the variable b
+     * @param mathContext the context quotients are rounded with
+     * @return the value of the expression
+     * @throws ArithmeticException if the expression divides by zero, or needs rounding with UNNECESSARY
+     */
+    public BigDecimal evaluate(BigDecimal a, BigDecimal b, MathContext mathContext) {
+        BigDecimal[] stack = new BigDecimal[maxStack];
+        int top = -1;
+        for (int instruction : code) {
+            int opcode = instruction & ((1 << OPCODE_BITS) - 1);
+            if (opcode == CONST || opcode == LOAD_A || opcode == LOAD_B) {
+                stack[++top] = opcode == CONST ? constants[instruction >>> OPCODE_BITS] : opcode == LOAD_A ? a : b;
+            } else if (opcode == NEGATE) {
+                stack[top] = stack[top].negate();
+            } else {
+                BigDecimal right = stack[top--];  // Binary operations replace their two operands with the result
+                stack[top] = switch (opcode) {
+                    case ADD -> stack[top].add(right);
+                    case SUBTRACT -> stack[top].subtract(right);
+                    case MULTIPLY -> stack[top].multiply(right);
+                    default -> stack[top].divide(right, mathContext);
+                };
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * @return the number of instructions, for tests and diagnostics
+     */
+    int size() {
+        return code.length;
+    }
+
+    /**
+     * Node of the syntax tree, which only lives while compiling.
+     *
+     * @param opcode the instruction the node compiles to
+     * @param value the constant of a CONST node
+     * @param left the only operand of a NEGATE node, or the left operand of a binary node
+     * @param right the right operand of a binary node
+     */
+    private record Node(int opcode, BigDecimal value, Node left, Node right) {
+
+        static Node constant(BigDecimal value) {
+            return new Node(CONST, value, null, null);
+        }
+
+        /**
+         * Creates a binary node, or the constant it always evaluates to. Division is never folded, as its result
+         * depends on the math context of the calculation.
+         */
+        static Node binary(int opcode, Node left, Node right) {
+            if (left.opcode == CONST && right.opcode == CONST && opcode != DIVIDE) {
+                return constant(switch (opcode) {
+                    case ADD -> left.value.add(right.value);
+                    case SUBTRACT -> left.value.subtract(right.value);
+                    default -> left.value.multiply(right.value);
+                });
+            }
+            return new Node(opcode, null, left, right);
+        }
+
+        static Node negate(Node operand) {
+            return operand.opcode == CONST ? constant(operand.value.negate()) : new Node(NEGATE, null, operand, null);
+        }
+    }
+
+    /**
+     * Recursive descent parser, one method per precedence level.
+     */
+    private static final class Parser {
+
+        private final String source;
+        private int position;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        Node parseExpression() {
+            Node node = parseTerm();
+            for (char operator = peek(); operator == '+' || operator == '-'; operator = peek()) {
+                position++;
+                node = Node.binary(operator == '+' ? ADD : SUBTRACT, node, parseTerm());
+            }
+            return node;
+        }
+
+        private Node parseTerm() {
+            Node node = parseUnary();
+            for (char operator = peek(); operator == '*' || operator == '/'; operator = peek()) {
+                position++;
+                node = Node.binary(operator == '*' ? MULTIPLY : DIVIDE, node, parseUnary());
+            }
+            return node;
+        }
+
+        private Node parseUnary() {
+            char operator = peek();
+            if (operator == '-' || operator == '+') {
+                position++;
+                Node operand = parseUnary();
+                return operator == '-' ? Node.negate(operand) : operand;
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            char next = peek();
+            if (next == '(') {
+                position++;
+                Node node = parseExpression();
+                if (peek() != ')') {
+                    throw error("Missing ')'");
+                }
+                position++;
+                return node;
+            }
+            if (next == 'a' || next == 'b') {
+                position++;
+                return new Node(next == 'a' ? LOAD_A : LOAD_B, null, null, null);
+            }
+            if (Character.isDigit(next) || next == '.') {
+                return Node.constant(parseNumber());
+            }
+            throw error(next == 0 ? "Unexpected end of expression" : "Unexpected '" + next + "'");
+        }
+
+        private BigDecimal parseNumber() {
+            int start = position;
+            while (position < source.length() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+                position++;
+            }
+            if (position < source.length() && (source.charAt(position) == 'e' || source.charAt(position) == 'E')) {
+                position++;
+                if (position < source.length() && (source.charAt(position) == '+' || source.charAt(position) == '-')) {
+                    position++;
+                }
+                while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                    position++;
+                }
+            }
+            BigDecimal number;
+            try {
+                number = new BigDecimal(source.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number at position " + start);
+            }
+            // A huge exponent would make the next sum allocate as many digits
+            if (Math.abs(number.scale()) > MAX_LENGTH) {
+                throw new IllegalArgumentException("Number out of range at position " + start);
+            }
+            return number;
+        }
+
+        /**
+         * @return the next character that is not whitespace, without consuming it, or 0 at the end
+         */
+        private char peek() {
+            skipWhitespace();
+            return position < source.length() ? source.charAt(position) : 0;
+        }
+
+        void skipWhitespace() {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position);
+        }
+    }
+
+    /**
+     * Writes the postfix code of a syntax tree and tracks the stack depth it needs.
+     */
+    private static final class Emitter {
+
+        final List<Integer> code = new ArrayList<>();
+        final List<BigDecimal> constants = new ArrayList<>();
+        int maxDepth;
+        private int depth;
+
+        void emit(Node node) {
+            switch (node.opcode()) {
+                case CONST -> {
+                    code.add(CONST | constants.size() << OPCODE_BITS);
+                    constants.add(node.value());
+                    push();
+                }
+                case LOAD_A, LOAD_B -> {
+                    code.add(node.opcode());
+                    push();
+                }
+                case NEGATE -> {
+                    emit(node.left());
+                    code.add(NEGATE);
+                }
+                default -> {
+                    emit(node.left());
+                    emit(node.right());
+                    code.add(node.opcode());
+                    depth--;
+                }
+            }
+        }
+
+        private void push() {
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+
+/**
+ * Bounded cache of compiled expressions keyed by their text, so a formula evaluated again, even with other operands,
+ * skips parsing. Eviction follows Caffeine's W-TinyLFU policy once the maximum size is reached.
+ * Expressions that do not compile are not cached.
+ */
+public class ExpressionCache {
+
+    private final LoadingCache<String, Expression> cache;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maximumSize the maximum number of compiled expressions kept
+     */
+    public ExpressionCache(long maximumSize) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build(Expression::compile);
+    }
+
+    /**
+     * Returns the compiled form of an expression, compiling it on a miss.
+     *
+     * @param operation the operation carrying the expression, see {@link Expression#toOperation(String)}
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public Expression get(String operation) {
+        return cache.get(operation);
+    }
+
+    /**
+     * Evaluates a calculation whose operation is an expression, with its operands as the variables a and b
+     * and its precision and rounding for the quotients.
+     *
+     * @param calculation the calculation to evaluate
+     * @return the result, without decimal part if it is a whole number
+     * @throws IllegalArgumentException if the expression or the precision is not valid, or an operand is out of range
+     * @throws ArithmeticException if the expression divides by zero, or needs rounding with UNNECESSARY
+     */
+    public String evaluate(Calculation calculation) {
+        CalculationEngine.checkOperands(calculation);
+        Expression expression = get(calculation.operation());
+        return CalculationEngine.format(expression.evaluate(calculation.a(), calculation.b(), CalculationEngine.mathContext(calculation)));
+    }
+
+    /**
+     * @return the underlying cache, for binding metrics
+     */
+    public LoadingCache<String, Expression> cache() {
+        return cache;
+    }
+}
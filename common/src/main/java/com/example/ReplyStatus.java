@@ -0,0 +1,18 @@
+package com.example;
+
+/**
+ * Outcome of a calculation request, carried in every reply next to its request ID.
+ * It tells the rest instance whether to return the results or to fail the request at once with a matching HTTP status,
+ * instead of treating an error message as a result.
+ */
+public enum ReplyStatus {
+
+    /** Every calculation was performed, the results are the calculated values. */
+    OK,
+
+    /** The request was understood but rejected, for example an unknown operation; failed results hold the reason. */
+    CLIENT_ERROR,
+
+    /** The calculator could not process the request; the only result holds the reason. */
+    SERVER_ERROR
+}
@@ -0,0 +1,46 @@
+package com.example;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+/**
+ * Logback turbo filter that keeps only a share of the per-request log lines, those logged with the {@link #REQUEST} marker.
+ * It runs before the logging event is created, so a dropped line costs neither formatting nor a trip to the appenders.
+ * Lines logged at WARN or above are always kept, as are lines without the marker.
+ * Set it up in logback-spring.xml with a sampleRate between 0 (drop every per-request line) and 1 (keep them all).
+ */
+public class RequestLogSampler extends TurboFilter {
+
+    /** Marker of the log lines written for every request, which are the ones sampled. */
+    public static final Marker REQUEST = MarkerFactory.getMarker("REQUEST");
+
+    private double sampleRate = 1.0;  // Share of the per-request lines kept
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (sampleRate >= 1.0 || marker != REQUEST || level == null || level.isGreaterOrEqual(Level.WARN)) {
+            return FilterReply.NEUTRAL;
+        }
+        return ThreadLocalRandom.current().nextDouble() < sampleRate ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate the share of the per-request lines kept, between 0 and 1
+     */
+    public void setSampleRate(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        }
+        this.sampleRate = sampleRate;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats in which calculation messages can be written to Kafka.
+ * Readers detect the format of every message on their own, so writers can be switched one instance at a time.
+ */
+public enum WireFormat {
+
+    /** Comma separated text, e.g. <requestId>,<operation>,<operand1>,<operand2>. */
+    STRING,
+
+    /** Compact binary encoding, see {@link CalculationCodec}. */
+    BINARY;
+
+    /** Producer property selecting the format used by the calculation serializers. */
+    public static final String CONFIG = "calculation.wire.format";
+
+    /**
+     * Reads the wire format from the serializer configuration, defaulting to {@link #STRING}.
+     *
+     * @param configs the producer configuration
+     * @return the configured wire format
+     */
+    public static WireFormat from(Map<String, ?> configs) {
+        Object value = configs.get(CONFIG);
+        return value == null ? STRING : valueOf(value.toString().trim().toUpperCase(Locale.ROOT));
+    }
+}
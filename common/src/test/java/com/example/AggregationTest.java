@@ -0,0 +1,128 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class verifies the aggregate operations in both modes, sequential and parallel, whole and in chunks.
+ */
+public class AggregationTest {
+
+    private static final List<BigDecimal> VALUES = List.of(
+            new BigDecimal("0.1"), new BigDecimal("0.2"), new BigDecimal("-3"), new BigDecimal("4.5"));
+
+    /**
+     * Test case for the exact mode.
+     * Verifies every operation, with the mean rounded to the precision of the calculation when it does not terminate.
+     */
+    @Test
+    public void testExact() {
+        assertEquals("1.8", aggregate("sum", VALUES));
+        assertEquals("-0.270", aggregate("product", VALUES));  // Keeps the scale of the factors, like multiply
+        assertEquals("0.45", aggregate("mean", VALUES));
+        assertEquals("-3", aggregate("min", VALUES));
+        assertEquals("4.5", aggregate("max", VALUES));
+        assertEquals("-13.48", aggregate("dot", VALUES));  // 0.1 * 0.2 + -3 * 4.5
+        assertEquals("0.33", Aggregation.aggregate(new Calculation("@mean", null, null, 2, RoundingMode.HALF_UP,
+                decimals(0, 0, 1)), Aggregation.DEFAULT_PARALLEL_THRESHOLD));
+    }
+
+    /**
+     * Test case for the double mode.
+     * Verifies that values are calculated in binary, so 0.1 * 3 shows its rounding, and that overflows are reported.
+     */
+    @Test
+    public void testDouble() {
+        assertEquals("0.30000000000000004", Aggregation.aggregate(new Calculation("@product.double", null, null, null, null,
+                List.of(new BigDecimal("0.1"), new BigDecimal("3"))), Integer.MAX_VALUE));
+        assertEquals("4.5", Aggregation.aggregate(
+                new Calculation("@max.double", null, null, null, null, VALUES), Integer.MAX_VALUE));
+        assertEquals("Infinity", Aggregation.aggregate(new Calculation("@product.double", null, null, null, null,
+                List.of(new BigDecimal("1E300"), new BigDecimal("1E300"))), Integer.MAX_VALUE));
+    }
+
+    /**
+     * Test case for the parallel reduction.
+     * Verifies that reducing in parallel gives the same exact result as reducing sequentially.
+     */
+    @Test
+    public void testParallel() {
+        List<BigDecimal> values = IntStream.rangeClosed(1, 20_000).mapToObj(i -> BigDecimal.valueOf(i, 2)).toList();
+
+        // Factors of -1 with a 1.5 every thousand values, as the product of the values above outgrows MAX_PRODUCT_DIGITS
+        List<BigDecimal> factors = IntStream.rangeClosed(1, 20_000)
+                .mapToObj(i -> i % 1000 == 0 ? new BigDecimal("1.5") : BigDecimal.ONE.negate()).toList();
+
+        for (String name : Aggregation.OPERATIONS) {
+            Calculation calculation = new Calculation(Aggregation.toOperation(name, Aggregation.Mode.EXACT), null, null, null, null,
+                    "product".equals(name) ? factors : values);
+            assertEquals(Aggregation.aggregate(calculation, Integer.MAX_VALUE), Aggregation.aggregate(calculation, 0), name);
+        }
+        assertEquals("2000100", aggregate("sum", values));
+        assertEquals("3325.25673007965087890625", aggregate("product", factors));
+    }
+
+    /**
+     * Test case for chunks.
+     * Verifies that combining the partial results of the chunks gives the result of one reduction, also for the mean.
+     */
+    @Test
+    public void testCombine() {
+        List<BigDecimal> values = decimals(1, 2, 3, 4, 5, 6, 7);
+
+        for (String name : Aggregation.OPERATIONS) {
+            String operation = Aggregation.toOperation(name, Aggregation.Mode.EXACT);
+            List<String> partials = new ArrayList<>();
+            for (int from = 0; from < values.size(); from += 4) {  // Chunks of 4 values, that is 2 pairs
+                List<BigDecimal> chunk = values.subList(from, Math.min(values.size(), from + 4));
+                if (Aggregation.isPairwise(operation) && chunk.size() % 2 != 0) {
+                    chunk = chunk.subList(0, chunk.size() - 1);
+                }
+                partials.add(Aggregation.aggregate(new Calculation(Aggregation.partialOperation(operation),
+                        null, null, null, null, chunk), Integer.MAX_VALUE));
+            }
+            long count = Aggregation.isPairwise(operation) ? 3 : values.size();
+            List<BigDecimal> whole = Aggregation.isPairwise(operation) ? values.subList(0, 6) : values;
+            assertEquals(aggregate(name, whole), Aggregation.combine(new Calculation(operation, null, null), partials, count), name);
+        }
+    }
+
+    /**
+     * Test case for invalid aggregates.
+     * Verifies that unknown operations, missing values, unpaired dot product values and exact products beyond
+     * MAX_PRODUCT_DIGITS are rejected, in one reduction and when combining chunks.
+     */
+    @Test
+    public void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> aggregate("median", VALUES));
+        assertThrows(IllegalArgumentException.class, () -> aggregate("sum", List.of()));
+        assertThrows(IllegalArgumentException.class, () -> aggregate("dot", VALUES.subList(0, 3)));
+        assertThrows(IllegalArgumentException.class, () -> Aggregation.aggregate(new Calculation("sum", BigDecimal.ONE, BigDecimal.ONE), 1));
+        assertThrows(ArithmeticException.class, () -> Aggregation.aggregate(new Calculation("@mean", null, null, null,
+                RoundingMode.UNNECESSARY, decimals(0, 0, 1)), Aggregation.DEFAULT_PARALLEL_THRESHOLD));
+
+        BigDecimal longFactor = new BigDecimal("9".repeat(CalculationEngine.MAX_OPERAND_DIGITS));
+        assertThrows(IllegalArgumentException.class, () -> aggregate("product", Collections.nCopies(11, longFactor)));
+        assertThrows(IllegalArgumentException.class, () -> aggregate("product", Collections.nCopies(11, new BigDecimal("1e-1000"))));
+        assertEquals(Aggregation.MAX_PRODUCT_DIGITS, aggregate("product", Collections.nCopies(10, longFactor)).length());
+        List<String> partials = Collections.nCopies(2, aggregate("product", Collections.nCopies(6, longFactor)));
+        assertThrows(IllegalArgumentException.class, () -> Aggregation.combine(new Calculation("@product", null, null), partials, 12));
+    }
+
+    private static String aggregate(String name, List<BigDecimal> values) {
+        return Aggregation.aggregate(new Calculation(Aggregation.toOperation(name, Aggregation.Mode.EXACT),
+                null, null, null, null, values), Aggregation.DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    private static List<BigDecimal> decimals(long... values) {
+        return IntStream.range(0, values.length).mapToObj(i -> BigDecimal.valueOf(values[i])).toList();
+    }
+}
@@ -0,0 +1,242 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.kafka.common.errors.SerializationException;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class verifies the encoding and decoding of calculation messages in both wire formats.
+ */
+public class CalculationCodecTest {
+
+    private static final String REQUEST_ID = UUID.randomUUID().toString();
+
+    /**
+     * Test case for the string format.
+     * Verifies that messages are written exactly as the original comma separated text.
+     */
+    @Test
+    public void testStringFormat() {
+        CalculationRequest request = new CalculationRequest(REQUEST_ID, "sum", new BigDecimal("5"), new BigDecimal("10.6"));
+
+        byte[] data = CalculationCodec.encodeRequest(request, WireFormat.STRING);
+
+        assertArrayEquals((REQUEST_ID + ",sum,5,10.6").getBytes(StandardCharsets.UTF_8), data);
+        assertEquals(request, CalculationCodec.decodeRequest(data));
+        assertArrayEquals((REQUEST_ID + ",Error processing Kafka message: 1;sum;2").getBytes(StandardCharsets.UTF_8),
+                CalculationCodec.encodeReply(new CalculationReply(REQUEST_ID, "Error processing Kafka message: 1,sum,2"), WireFormat.STRING));
+    }
+
+    /**
+     * Test case for batch messages.
+     * Verifies that every calculation and result survives the round trip in order, in both formats.
+     */
+    @Test
+    public void testBatchRoundTrip() {
+        CalculationRequest request = new CalculationRequest(REQUEST_ID, List.of(
+                new Calculation("sum", new BigDecimal("5"), new BigDecimal("10.6")),
+                new Calculation("divide", new BigDecimal("50"), new BigDecimal("20")),
+                new Calculation("modulo", BigDecimal.ONE, BigDecimal.TEN)));
+        CalculationReply reply = new CalculationReply(REQUEST_ID, List.of("15.6", "2", "Invalid operation"));
+
+        for (WireFormat format : WireFormat.values()) {
+            assertEquals(request, CalculationCodec.decodeRequest(CalculationCodec.encodeRequest(request, format)));
+            assertEquals(reply, CalculationCodec.decodeReply(CalculationCodec.encodeReply(reply, format)));
+        }
+        assertArrayEquals((REQUEST_ID + ",sum,5,10.6,divide,50,20,modulo,1,10").getBytes(StandardCharsets.UTF_8),
+                CalculationCodec.encodeRequest(request, WireFormat.STRING));
+        assertThrows(SerializationException.class,
+                () -> CalculationCodec.decodeRequest((REQUEST_ID + ",sum,5,10.6,divide,50").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Test case for calculations with their own precision and rounding.
+     * Verifies that both survive the round trip in both formats, also when only one of them is set.
+     */
+    @Test
+    public void testMathContextRoundTrip() {
+        CalculationRequest request = new CalculationRequest(REQUEST_ID, List.of(
+                new Calculation("divide", BigDecimal.ONE, new BigDecimal("3"), 50, RoundingMode.HALF_EVEN),
+                new Calculation("divide", BigDecimal.ONE, new BigDecimal("7"), 5, null),
+                new Calculation("divide", BigDecimal.TEN, new BigDecimal("3"), null, RoundingMode.FLOOR),
+                new Calculation("sum", BigDecimal.ONE, BigDecimal.TEN)));
+
+        for (WireFormat format : WireFormat.values()) {
+            assertEquals(request, CalculationCodec.decodeRequest(CalculationCodec.encodeRequest(request, format)));
+        }
+        assertArrayEquals((REQUEST_ID + ",divide:50:HALF_EVEN,1,3,divide:5:,1,7,divide::FLOOR,10,3,sum,1,10").getBytes(StandardCharsets.UTF_8),
+                CalculationCodec.encodeRequest(request, WireFormat.STRING));
+    }
+
+    /**
+     * Test case for replies with an error status.
+     * Verifies that the status survives the round trip in both formats, and that successful string replies keep
+     * the original format.
+     */
+    @Test
+    public void testReplyStatusRoundTrip() {
+        List<CalculationReply> replies = List.of(
+                new CalculationReply(REQUEST_ID, ReplyStatus.CLIENT_ERROR, List.of("15", "Invalid operation")),
+                new CalculationReply(REQUEST_ID, ReplyStatus.SERVER_ERROR, List.of("Error processing Kafka message: Empty decimal")),
+                new CalculationReply(REQUEST_ID, "2.5"));
+
+        for (WireFormat format : WireFormat.values()) {
+            for (CalculationReply reply : replies) {
+                assertEquals(reply, CalculationCodec.decodeReply(CalculationCodec.encodeReply(reply, format)));
+            }
+        }
+        assertArrayEquals((REQUEST_ID + ",!CLIENT_ERROR,15,Invalid operation").getBytes(StandardCharsets.UTF_8),
+                CalculationCodec.encodeReply(replies.get(0), WireFormat.STRING));
+        assertArrayEquals((REQUEST_ID + ",2.5").getBytes(StandardCharsets.UTF_8),
+                CalculationCodec.encodeReply(replies.get(2), WireFormat.STRING));
+    }
+
+    /**
+     * Test case for aggregates.
+     * Verifies that their values survive the round trip in both formats, in order and with their scale, next to
+     * a math context and calculations without values.
+     */
+    @Test
+    public void testAggregateRoundTrip() {
+        List<BigDecimal> values = List.of(new BigDecimal("1"), new BigDecimal("-2.50"), new BigDecimal("1E+3"));
+        CalculationRequest request = new CalculationRequest(REQUEST_ID, List.of(
+                new Calculation("@sum", null, null, null, null, values),
+                new Calculation("@mean.double", null, null, 10, RoundingMode.FLOOR, values),
+                new Calculation("sum", BigDecimal.ONE, BigDecimal.TEN)));
+
+        for (WireFormat format : WireFormat.values()) {
+            assertEquals(request, CalculationCodec.decodeRequest(CalculationCodec.encodeRequest(request, format)));
+        }
+        assertArrayEquals((REQUEST_ID + ",@sum;1;-2.50;1E+3,0,0,@mean.double:10:FLOOR;1;-2.50;1E+3,0,0,sum,1,10").getBytes(StandardCharsets.UTF_8),
+                CalculationCodec.encodeRequest(request, WireFormat.STRING));
+    }
+
+    /**
+     * Test case for the binary format.
+     * Verifies that requests and results survive the round trip exactly, including scale and sign, and are smaller than the string format.
+     */
+    @Test
+    public void testBinaryFormatRoundTrip() {
+        CalculationRequest request = new CalculationRequest(REQUEST_ID, "divide",
+                new BigDecimal("-12345678901234567890.1234567890"), new BigDecimal("1.50E+3"));
+
+        byte[] data = CalculationCodec.encodeRequest(request, WireFormat.BINARY);
+
+        assertEquals(request, CalculationCodec.decodeRequest(data));
+        assertTrue(data.length < CalculationCodec.encodeRequest(request, WireFormat.STRING).length);
+
+        for (String result : new String[] {"15", "-2.12", "1E-7", "Invalid operation"}) {
+            CalculationReply reply = new CalculationReply(REQUEST_ID, result);
+            assertEquals(reply, CalculationCodec.decodeReply(CalculationCodec.encodeReply(reply, WireFormat.BINARY)));
+        }
+    }
+
+    /**
+     * Test case for an operation without an opcode.
+     * Verifies that the operation name is carried as text, so the calculator can still reject it.
+     */
+    @Test
+    public void testBinaryFormatUnknownOperation() {
+        CalculationRequest request = new CalculationRequest(REQUEST_ID, "modulo", BigDecimal.ONE, BigDecimal.TEN);
+
+        assertEquals(request, CalculationCodec.decodeRequest(CalculationCodec.encodeRequest(request, WireFormat.BINARY)));
+    }
+
+    /**
+     * Test case for invalid messages.
+     * Verifies that they are rejected, including those of another wire format version, and that the request ID can still
+     * be recovered for error reporting.
+     */
+    @Test
+    public void testInvalidMessages() {
+        byte[] missingOperand = "12345,sum,10".getBytes(StandardCharsets.UTF_8);
+        assertThrows(SerializationException.class, () -> CalculationCodec.decodeRequest(missingOperand));
+        assertEquals("12345", CalculationCodec.peekRequestId(missingOperand));
+
+        byte[] truncated = CalculationCodec.encodeRequest(
+                new CalculationRequest(REQUEST_ID, "sum", BigDecimal.ONE, BigDecimal.TEN), WireFormat.BINARY);
+        byte[] damaged = Arrays.copyOf(truncated, truncated.length - 2);
+        assertThrows(SerializationException.class, () -> CalculationCodec.decodeRequest(damaged));
+        assertEquals(REQUEST_ID, CalculationCodec.peekRequestId(damaged));
+        assertNull(CalculationCodec.peekRequestId(new byte[] {0, 1}));
+
+        byte[] oldVersion = truncated.clone();
+        oldVersion[1] = 1;  // Written before the batch, math context, status and values changes of the layout
+        assertEquals("Unsupported wire format version 1",
+                assertThrows(SerializationException.class, () -> CalculationCodec.decodeRequest(oldVersion)).getMessage());
+
+        assertThrows(SerializationException.class, () -> CalculationCodec.encodeRequest(
+                new CalculationRequest("12345", "sum", BigDecimal.ONE, BigDecimal.TEN), WireFormat.BINARY));
+    }
+
+    /**
+     * Test case for length prefixes beyond the message.
+     * Verifies that a batch count, a decimal length, a text length or a value count larger than the bytes left is
+     * rejected before anything is allocated for it.
+     */
+    @Test
+    public void testOversizedLengths() {
+        byte[] gigabyte = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x04};  // Varint of 1 << 30
+        byte[] requestHeader = Arrays.copyOf(CalculationCodec.encodeRequest(
+                new CalculationRequest(REQUEST_ID, "sum", BigDecimal.ONE, BigDecimal.TEN), WireFormat.BINARY), 19);
+        byte[] batchRequestHeader = Arrays.copyOf(CalculationCodec.encodeRequest(new CalculationRequest(REQUEST_ID,
+                List.of(new Calculation("sum", BigDecimal.ONE, BigDecimal.TEN), new Calculation("sum", BigDecimal.ONE, BigDecimal.TEN))),
+                WireFormat.BINARY), 19);
+        byte[] replyHeader = Arrays.copyOf(CalculationCodec.encodeReply(
+                new CalculationReply(REQUEST_ID, "Invalid operation"), WireFormat.BINARY), 19);
+
+        assertEquals("Length 1073741824 exceeds the 0 bytes left", assertThrows(SerializationException.class,
+                () -> CalculationCodec.decodeRequest(concat(batchRequestHeader, gigabyte))).getMessage());
+        assertEquals("Length 1073741824 exceeds the 0 bytes left", assertThrows(SerializationException.class,
+                () -> CalculationCodec.decodeRequest(concat(requestHeader, new byte[] {1, 0}, gigabyte))).getMessage());  // Sum, scale 0
+        assertEquals("Length 1073741824 exceeds the 0 bytes left", assertThrows(SerializationException.class,
+                () -> CalculationCodec.decodeReply(concat(replyHeader, new byte[] {1}, gigabyte))).getMessage());  // Text result
+        assertEquals("Length 1073741824 exceeds the 3 bytes left", assertThrows(SerializationException.class,
+                () -> CalculationCodec.decodeRequest(concat(requestHeader, new byte[] {0x20, 4}, "@sum".getBytes(StandardCharsets.UTF_8),
+                        gigabyte, new byte[] {0, 1, 1}))).getMessage());  // Named operation with one value
+    }
+
+    /**
+     * Test case for the Kafka serializers.
+     * Verifies that the wire format is taken from the producer configuration and detected by the deserializers.
+     */
+    @Test
+    public void testSerializersSelectFormat() {
+        CalculationRequest request = new CalculationRequest(REQUEST_ID, "multiply", new BigDecimal("1.3"), new BigDecimal("20"));
+        CalculationRequestDeserializer deserializer = new CalculationRequestDeserializer();
+
+        try (CalculationRequestSerializer serializer = new CalculationRequestSerializer()) {
+            serializer.configure(Map.of(), false);
+            byte[] string = serializer.serialize("calculation-requests", request);
+            serializer.configure(Map.of(WireFormat.CONFIG, "binary"), false);
+            byte[] binary = serializer.serialize("calculation-requests", request);
+
+            assertTrue(string[0] != 0);  // String messages never start with the magic byte
+            assertEquals(0, binary[0]);
+            assertEquals(request, deserializer.deserialize("calculation-requests", string));
+            assertEquals(request, deserializer.deserialize("calculation-requests", binary));
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        byte[] message = new byte[Arrays.stream(parts).mapToInt(part -> part.length).sum()];
+        int position = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, message, position, part.length);
+            position += part.length;
+        }
+        return message;
+    }
+}
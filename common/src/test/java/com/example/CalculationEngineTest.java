@@ -0,0 +1,124 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class verifies the results of the calculation engine, on both its long and its BigDecimal path.
+ */
+public class CalculationEngineTest {
+
+    /**
+     * Test case for decimal fractions that have no exact binary representation.
+     * Verifies that 0.1 + 0.2 is exactly 0.3, and that exact decimals survive every operation.
+     */
+    @Test
+    public void testExactDecimals() {
+        assertEquals("0.3", calculate("sum", "0.1", "0.2"));
+        assertEquals("0.1", calculate("subtract", "0.3", "0.2"));
+        assertEquals("0.02", calculate("multiply", "0.1", "0.2"));
+        assertEquals("0.5", calculate("divide", "0.1", "0.2"));
+        assertEquals("3.10", calculate("sum", "1.10", "2"));  // The scale of the operands is kept
+        assertEquals("8", calculate("sum", "5.0", "3.0"));  // Whole numbers have no decimal part
+        assertEquals("2.5", calculate("divide", "50", "20"));
+        assertEquals("0.3333333333333333333333333333333333", calculate("divide", "1", "3"));
+        assertEquals("1E-7", calculate("multiply", "0.001", "0.0001"));
+    }
+
+    /**
+     * Test case for divisions with their own precision and rounding.
+     * Verifies that inexact quotients are rounded as requested, and that exact quotients are rounded too when
+     * they have more digits than the precision.
+     */
+    @Test
+    public void testMathContext() {
+        assertEquals("0.3333333333", divide("1", "3", 10, null));
+        assertEquals("0.6666666666", divide("2", "3", 10, RoundingMode.DOWN));
+        assertEquals("0.14285714285714285714285714285714285714285714285714", divide("1", "7", 50, null));
+        assertEquals("0.12", divide("1", "8", 2, RoundingMode.HALF_EVEN));  // Exact 0.125, rounded to 2 digits
+        assertEquals("0.125", divide("1", "8", 3, null));
+        assertEquals("2.5", divide("10", "4", null, RoundingMode.FLOOR));
+        assertThrows(ArithmeticException.class, () -> divide("1", "3", 10, RoundingMode.UNNECESSARY));
+        assertThrows(IllegalArgumentException.class, () -> divide("1", "3", 0, null));
+    }
+
+    /**
+     * Test case for operands and results beyond the long fast path.
+     * Verifies that overflows fall back to BigDecimal instead of wrapping around.
+     */
+    @Test
+    public void testBeyondLongRange() {
+        assertEquals("18446744073709551614", calculate("sum", "9223372036854775807", "9223372036854775807"));
+        assertEquals("1000000000000000000000000000000000000", calculate("multiply", "1000000000000000000", "1000000000000000000"));
+        assertEquals("-1E-21", calculate("multiply", "-0.00000000001", "0.0000000001"));
+        assertEquals("1001", calculate("sum", "1E+3", "1"));
+        assertEquals(CalculationEngine.INVALID_OPERATION, calculate("modulo", "1", "2"));
+        assertThrows(ArithmeticException.class, () -> calculate("divide", "1", "0"));
+    }
+
+    /**
+     * Test case for operands out of range.
+     * Verifies that huge exponents and too many digits are rejected before any arithmetic, and that the limits themselves are accepted.
+     */
+    @Test
+    public void testOperandRange() {
+        assertThrows(IllegalArgumentException.class, () -> calculate("sum", "1e-999999999", "1"));
+        assertThrows(IllegalArgumentException.class, () -> calculate("multiply", "2", "1e999999999"));
+        assertThrows(IllegalArgumentException.class, () -> calculate("sum", "1".repeat(CalculationEngine.MAX_OPERAND_DIGITS + 1), "1"));
+        assertEquals("1." + "0".repeat(999) + "1", calculate("sum", "1e-1000", "1"));
+        assertThrows(IllegalArgumentException.class, () -> Aggregation.aggregate(new Calculation("@sum", null, null, null, null,
+                List.of(BigDecimal.ONE, new BigDecimal("1e-5000"))), Integer.MAX_VALUE));
+    }
+
+    /**
+     * Test case comparing the long fast path with plain BigDecimal arithmetic on random operands.
+     * Verifies that both give exactly the same text for every operation.
+     */
+    @Test
+    public void testFastPathMatchesBigDecimal() {
+        Random random = new Random(42);
+        String[] operations = {"sum", "subtract", "multiply", "divide"};
+        for (int i = 0; i < 20000; i++) {
+            BigDecimal a = BigDecimal.valueOf(random.nextLong() % 10_000_000_000L, random.nextInt(10));
+            BigDecimal b = BigDecimal.valueOf(random.nextLong() % 1_000_000L, random.nextInt(8));
+            if (i % 3 == 0) {
+                b = BigDecimal.valueOf(1L << random.nextInt(12), random.nextInt(4));  // Terminating quotients
+            }
+            for (String operation : operations) {
+                if (operation.equals("divide") && b.signum() == 0) {
+                    continue;
+                }
+                assertEquals(reference(operation, a, b), CalculationEngine.calculate(new Calculation(operation, a, b)),
+                        operation + " " + a + " " + b);
+            }
+        }
+    }
+
+    private static String divide(String a, String b, Integer precision, RoundingMode rounding) {
+        return CalculationEngine.calculate(new Calculation("divide", new BigDecimal(a), new BigDecimal(b), precision, rounding));
+    }
+
+    private static String calculate(String operation, String a, String b) {
+        return CalculationEngine.calculate(new Calculation(operation, new BigDecimal(a), new BigDecimal(b)));
+    }
+
+    /**
+     * The documented semantics, written with BigDecimal only.
+     */
+    private static String reference(String operation, BigDecimal a, BigDecimal b) {
+        BigDecimal result = switch (operation) {
+            case "sum" -> a.add(b);
+            case "subtract" -> a.subtract(b);
+            case "multiply" -> a.multiply(b);
+            default -> a.divide(b, new MathContext(34, RoundingMode.HALF_UP));
+        };
+        return result.stripTrailingZeros().scale() <= 0 ? result.toBigInteger().toString() : result.toString();
+    }
+}
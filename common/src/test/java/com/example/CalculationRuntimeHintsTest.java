@@ -0,0 +1,32 @@
+package com.example;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class verifies the reflection hints registered for the native images.
+ */
+public class CalculationRuntimeHintsTest {
+
+    /**
+     * Test case for the registered hints.
+     * Verifies that the serializers and the log sampler can be created by reflection, and that listeners of modules
+     * missing from the classpath are skipped.
+     */
+    @Test
+    public void testRegisterHints() {
+        RuntimeHints hints = new RuntimeHints();
+        new CalculationRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        assertTrue(RuntimeHintsPredicates.reflection().onType(CalculationRequestSerializer.class)
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(CalculationReplyDeserializer.class)
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(RequestLogSampler.class, "setSampleRate").test(hints));
+        assertFalse(hints.reflection().typeHints().anyMatch(hint -> hint.getType().getName().equals("com.example.CalculatorService")));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class verifies the parsing, compilation and evaluation of expressions, and their cache.
+ */
+public class ExpressionTest {
+
+    private final ExpressionCache expressionCache = new ExpressionCache(100);
+
+    /**
+     * Test case for operator precedence and parentheses.
+     * Verifies that unary minus binds first, then multiplication and division, then addition and subtraction, each
+     * left to right, and that results are exact like those of the calculation engine.
+     */
+    @Test
+    public void testPrecedence() {
+        assertEquals("7", evaluate("1 + 2 * 3"));
+        assertEquals("9", evaluate("(1 + 2) * 3"));
+        assertEquals("1", evaluate("8 / 4 / 2"));
+        assertEquals("2", evaluate("5 - 2 - 1"));
+        assertEquals("-4", evaluate("-2 * 2"));
+        assertEquals("4", evaluate("--4"));
+        assertEquals("0.3", evaluate("0.1 + 0.2"));
+        assertEquals("1500", evaluate("1.5e3 * 1"));
+        assertEquals("0.3333333333333333333333333333333333", evaluate("1 / 3"));
+    }
+
+    /**
+     * Test case for the variables.
+     * Verifies that a and b take the operands of the calculation and default to zero.
+     */
+    @Test
+    public void testVariables() {
+        assertEquals("5", expressionCache.evaluate(new Calculation(Expression.toOperation("(a * b + 3) / 7"),
+                new BigDecimal("4"), new BigDecimal("8"))));
+        assertEquals("3", expressionCache.evaluate(new Calculation(Expression.toOperation("a + 3"), null, null)));
+    }
+
+    /**
+     * Test case for the compiled form.
+     * Verifies that constant sums and products are folded but quotients are not, as they depend on the math context.
+     */
+    @Test
+    public void testConstantFolding() {
+        assertEquals(1, Expression.compile("(1 + 2) * 3 - -4").size());
+        assertEquals(3, Expression.compile("1 / 3").size());
+        assertEquals("0.33", Expression.compile("1 / 3")
+                .evaluate(BigDecimal.ZERO, BigDecimal.ZERO, new MathContext(2, RoundingMode.HALF_UP)).toString());
+    }
+
+    /**
+     * Test case for the cache.
+     * Verifies that an expression is compiled once, with its whitespace collapsed, and that invalid ones are not cached.
+     */
+    @Test
+    public void testCache() {
+        Expression expression = expressionCache.get(Expression.toOperation("a * b"));
+
+        assertSame(expression, expressionCache.get(Expression.toOperation(" a \t*\n  b ")));
+        assertThrows(IllegalArgumentException.class, () -> expressionCache.get(Expression.toOperation("a *")));
+        assertEquals(1, expressionCache.cache().estimatedSize());
+    }
+
+    /**
+     * Test case for invalid expressions.
+     * Verifies that syntax errors name their position, and that divisions by zero fail like in the calculation engine.
+     */
+    @Test
+    public void testInvalidExpressions() {
+        assertEquals("Missing ')' at position 6",
+                assertThrows(IllegalArgumentException.class, () -> Expression.compile("(1 + 2")).getMessage());
+        assertEquals("Unexpected ')' at position 3",
+                assertThrows(IllegalArgumentException.class, () -> Expression.compile("1 +)")).getMessage());
+        assertEquals("Unexpected 'c' at position 4",
+                assertThrows(IllegalArgumentException.class, () -> Expression.compile("a + c")).getMessage());
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile(" "));
+        assertEquals("Unexpected '2' at position 2",
+                assertThrows(IllegalArgumentException.class, () -> evaluate("1 2")).getMessage());
+        assertThrows(IllegalArgumentException.class, () -> evaluate("1 2 + 3"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("1.2.3"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("1e999999999 + 1"));
+        assertThrows(IllegalArgumentException.class, () -> Expression.compile("1+".repeat(600) + "1"));
+        assertThrows(ArithmeticException.class, () -> evaluate("1 / (2 - 2)"));
+    }
+
+    private String evaluate(String expression) {
+        return expressionCache.evaluate(new Calculation(Expression.toOperation(expression), null, null));
+    }
+}
@@ -0,0 +1,53 @@
+package com.example;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MarkerFactory;
+
+/**
+ * This test class verifies which log lines the request log sampler drops.
+ */
+public class RequestLogSamplerTest {
+
+    private final Logger logger = new LoggerContext().getLogger(RequestLogSamplerTest.class);
+
+    /**
+     * Test case for a sample rate of zero.
+     * Verifies that every per-request INFO line is dropped, while warnings and lines without the marker are kept.
+     */
+    @Test
+    public void testDropsOnlyPerRequestLines() {
+        RequestLogSampler sampler = new RequestLogSampler();
+        sampler.setSampleRate(0);
+
+        assertEquals(FilterReply.DENY, sampler.decide(RequestLogSampler.REQUEST, logger, Level.INFO, "Received", null, null));
+        assertEquals(FilterReply.NEUTRAL, sampler.decide(RequestLogSampler.REQUEST, logger, Level.WARN, "Rejected", null, null));
+        assertEquals(FilterReply.NEUTRAL, sampler.decide(null, logger, Level.INFO, "Started", null, null));
+        assertEquals(FilterReply.NEUTRAL, sampler.decide(MarkerFactory.getMarker("OTHER"), logger, Level.INFO, "Started", null, null));
+    }
+
+    /**
+     * Test case for a partial sample rate.
+     * Verifies that roughly the configured share of per-request lines is kept, and that invalid rates are refused.
+     */
+    @Test
+    public void testKeepsSampleRate() {
+        RequestLogSampler sampler = new RequestLogSampler();
+        sampler.setSampleRate(0.1);
+
+        int kept = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (sampler.decide(RequestLogSampler.REQUEST, logger, Level.INFO, "Received", null, null) == FilterReply.NEUTRAL) {
+                kept++;
+            }
+        }
+        assertTrue(kept > 9_000 && kept < 11_000, "kept " + kept);
+        assertThrows(IllegalArgumentException.class, () -> sampler.setSampleRate(1.5));
+    }
+}
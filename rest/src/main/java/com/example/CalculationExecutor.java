@@ -0,0 +1,20 @@
+package com.example;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Strategy used by the controller to run calculations, selected with calculator.execution.mode,
+ * see {@link CalculationExecutorConfig}.
+ */
+public interface CalculationExecutor {
+
+    /**
+     * Runs the calculations of one request.
+     *
+     * @param requestId the unique ID of the request
+     * @param calculations the calculations to perform
+     * @return a future completed with the results, in the order of the calculations
+     */
+    CompletableFuture<List<String>> execute(String requestId, List<Calculation> calculations);
+}
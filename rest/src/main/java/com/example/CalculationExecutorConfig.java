@@ -0,0 +1,108 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+
+/**
+ * Configuration class that selects where calculations run, with calculator.execution.mode:
+ * remote (default) sends them to the calculator service through Kafka, local performs them in this process,
+ * and local-audit performs them in this process and also publishes every request to the calculation-audit topic.
+ */
+@Configuration
+public class CalculationExecutorConfig {
+
+    private static final String MODE = "calculator.execution.mode";
+
+    /**
+     * Creates the executor sending the calculations through Kafka, with its in-flight limit and circuit breaker,
+     * and binds its metrics to the meter registry.
+     *
+     * @return the executor, closed with the context to stop its sweeper
+     */
+    @Bean
+    @ConditionalOnProperty(name = MODE, havingValue = "remote", matchIfMissing = true)
+    public KafkaCalculationExecutor kafkaCalculationExecutor(KafkaTemplate<String, CalculationRequest> kafkaTemplate,
+                                                             String replyTopic,
+                                                             @Value("${calculator.reply-timeout:30s}") Duration replyTimeout,
+                                                             @Value("${calculator.admission.max-in-flight:10000}") int maxInFlight,
+                                                             @Value("${calculator.admission.retry-after:1s}") Duration retryAfter,
+                                                             @Value("${calculator.circuit-breaker.enabled:true}") boolean circuitBreakerEnabled,
+                                                             @Value("${calculator.circuit-breaker.window-size:100}") int windowSize,
+                                                             @Value("${calculator.circuit-breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+                                                             @Value("${calculator.circuit-breaker.slow-call-rate-threshold:0.8}") double slowCallRateThreshold,
+                                                             @Value("${calculator.circuit-breaker.slow-call-duration:5s}") Duration slowCallDuration,
+                                                             @Value("${calculator.circuit-breaker.open-duration:10s}") Duration openDuration,
+                                                             MeterRegistry meterRegistry) {
+        CircuitBreaker circuitBreaker = circuitBreakerEnabled
+                ? new CircuitBreaker(windowSize, failureRateThreshold, slowCallRateThreshold, slowCallDuration, openDuration)
+                : null;
+        return new KafkaCalculationExecutor(kafkaTemplate, replyTopic, replyTimeout, maxInFlight, retryAfter, circuitBreaker, meterRegistry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = MODE, havingValue = "local")
+    public LocalCalculationExecutor localCalculationExecutor(ExpressionCache expressionCache) {
+        return new LocalCalculationExecutor(null, expressionCache);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = MODE, havingValue = "local-audit")
+    public LocalCalculationExecutor auditedLocalCalculationExecutor(@Qualifier("auditKafkaTemplate") KafkaTemplate<String, CalculationRequest> auditTemplate,
+                                                                    ExpressionCache expressionCache) {
+        return new LocalCalculationExecutor(auditTemplate, expressionCache);
+    }
+
+    /**
+     * Creates the template publishing the audit log, with a producer of its own whose max.block.ms is cut to
+     * calculator.audit.max-block, so a broker that is down delays a response by at most that long instead of the
+     * default 60 seconds. It is only injected where asked for by name, and leaves the KafkaTemplate of Spring Boot in place.
+     *
+     * @return the template, closing its producer with the context
+     */
+    @Bean(defaultCandidate = false)
+    @ConditionalOnProperty(name = MODE, havingValue = "local-audit")
+    public KafkaTemplate<String, CalculationRequest> auditKafkaTemplate(ProducerFactory<String, CalculationRequest> producerFactory,
+                                                                        @Value("${calculator.audit.max-block:100ms}") Duration maxBlock) {
+        return new KafkaTemplate<>(producerFactory, Map.of(ProducerConfig.MAX_BLOCK_MS_CONFIG, maxBlock.toMillis()));
+    }
+
+    /**
+     * Creates the cache of compiled expressions, used to validate expressions before they are sent and to evaluate
+     * them in the local modes, and binds its statistics to the meter registry as cache=expressions.
+     *
+     * @param maximumSize the maximum number of compiled expressions kept
+     * @param meterRegistry the registry the cache metrics are published to
+     * @return the expression cache
+     */
+    @Bean
+    public ExpressionCache expressionCache(@Value("${calculator.expression.cache-size:10000}") long maximumSize,
+                                           MeterRegistry meterRegistry) {
+        ExpressionCache expressionCache = new ExpressionCache(maximumSize);
+        CaffeineCacheMetrics.monitor(meterRegistry, expressionCache.cache(), "expressions");
+        return expressionCache;
+    }
+
+    /**
+     * Creates the audit topic on startup if it does not exist yet.
+     *
+     * @return the topic definition picked up by the KafkaAdmin
+     */
+    @Bean
+    @ConditionalOnProperty(name = MODE, havingValue = "local-audit")
+    public NewTopic auditTopicDefinition() {
+        return TopicBuilder.name(LocalCalculationExecutor.AUDIT_TOPIC).build();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example;
+
+import java.util.List;
+
+/**
+ * Failure of a calculation request that the calculator answered with a status other than {@link ReplyStatus#OK}.
+ * Pending requests are completed with it as soon as the reply arrives, so the client gets a matching error status
+ * instead of waiting for the reply timeout.
+ */
+public class CalculationFailedException extends RuntimeException {
+
+    private final ReplyStatus status;
+    private final List<String> results;
+
+    /**
+     * @param status the status of the reply, either a client or a server error
+     * @param results the results of the reply, with the reason in place of each failed result
+     */
+    public CalculationFailedException(ReplyStatus status, List<String> results) {
+        super(results.size() == 1 ? results.get(0) : results.toString());
+        this.status = status;
+        this.results = results;
+    }
+
+    /**
+     * @return the status of the reply
+     */
+    public ReplyStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the results of the reply, with the reason in place of each failed result
+     */
+    public List<String> getResults() {
+        return results;
+    }
+}
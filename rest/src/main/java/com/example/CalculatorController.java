@@ -1,45 +1,121 @@
 package com.example;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 /**
- * Controller class that handles incoming HTTP requests for calculation operations (sum, subtract, multiply, divide).
- * It communicates with Kafka to process the calculations and returns the results to the clients with a unique request ID in the response header.
+ * Controller class that handles incoming HTTP requests for calculation operations (sum, subtract, multiply, divide)
+ * and whole expressions, one at a time, in batches or as a stream, and for aggregates over arrays of values.
+ * It hands the calculations to the configured {@link CalculationExecutor} and returns the results to the clients with a unique request ID in the response header.
+ * Responses are returned asynchronously, so no servlet thread is held while waiting for the results.
+ * The end-to-end latency of single and batch requests is published as the calculator.requests timer, tagged with
+ * the operation and the response status.
  */
 @RestController
+@RegisterReflectionForBinding({Calculation.class, StreamedResult.class})  // Read and written by the stream with the ObjectMapper
 public class CalculatorController {
 
-    private static final String INPUT_TOPIC = "calculation-requests";                                           
-    private static final String OUTPUT_TOPIC = "calculation-results";                                          
-    private static final Logger logger = LoggerFactory.getLogger(CalculatorController.class);             
-    final ConcurrentHashMap<String, CompletableFuture<String>> responseFutures = new ConcurrentHashMap<>(); 
+    private static final Logger logger = LoggerFactory.getLogger(CalculatorController.class);
+    private static final Set<String> OPERATIONS = Set.of("sum", "subtract", "multiply", "divide");
+    private static final String STREAMS_SHED = "Too many streams and aggregates running";
+    private static final int MAX_CHUNK_CHARACTERS = 512 * 1024;  // Keeps chunks of long values below the default 1MB Kafka message limit
 
     @Autowired
-    KafkaTemplate<String, String> kafkaTemplate;  // Kafka template for sending messages to Kafka
+    CalculationExecutor executor;  // Runs the calculations, through Kafka or in process, see CalculationExecutorConfig
+
+    @Value("${calculator.max-precision:1000}")
+    int maxPrecision;  // Largest precision a division may ask for, division cost grows with it
+
+    @Value("${calculator.batch.max-size:1000}")
+    int maxBatchSize;  // Maximum number of operations in one batch request
+
+    @Value("${calculator.stream.max-in-flight:1000}")
+    int maxStreamInFlight;  // Maximum number of operations of one stream waiting for a result
+
+    @Value("${calculator.stream.timeout:10m}")
+    Duration streamTimeout;  // Longest a stream may stay open
+
+    @Value("${calculator.admission.retry-after:1s}")
+    Duration retryAfter;  // Retry-After sent when a stream or an aggregate is refused
+
+    @Value("${calculator.aggregate.chunk-size:10000}")
+    int aggregateChunkSize;  // Values, or pairs, of an aggregate sent to the calculator in one request
+
+    @Value("${calculator.aggregate.max-in-flight:16}")
+    int maxAggregateInFlight;  // Maximum number of chunks of one aggregate waiting for a result
+
+    @Autowired(required = false)
+    ResultCache resultCache;  // Results of earlier calculations, absent when calculator.cache.enabled is false
+
+    @Autowired
+    ObjectMapper objectMapper;  // Parses the operations of a stream and writes its results
+
+    @Autowired
+    ExpressionCache expressionCache;  // Checks expressions before they are sent
+
+    @Autowired
+    MeterRegistry meterRegistry;  // Receives the end-to-end latency of every request
+
+    @Autowired
+    @Qualifier("streamExecutor")
+    Executor streamExecutor;  // Runs the streams and aggregates, which read their input on one thread each, see StreamExecutorConfig
 
     /**
      * Endpoint to handle sum requests.
      *
      * @param a the first operand
      * @param b the second operand
-     * @return the result of the sum operation
+     * @return a future completed with the result of the sum operation
      */
     @GetMapping("/sum")
-    public ResponseEntity<CalculationResponse> sum(@RequestParam("a") double a, @RequestParam("b") double b) {
-        return processRequest(a, b, "sum");
+    public CompletableFuture<ResponseEntity<CalculationResponse>> sum(@RequestParam("a") BigDecimal a, @RequestParam("b") BigDecimal b) {
+        return processRequest(new Calculation("sum", a, b));
     }
 
     /**
@@ -47,11 +123,11 @@ public class CalculatorController {
      *
      * @param a the first operand
      * @param b the second operand
-     * @return the result of the subtraction operation
+     * @return a future completed with the result of the subtraction operation
      */
     @GetMapping("/subtract")
-    public ResponseEntity<CalculationResponse> subtract(@RequestParam("a") double a, @RequestParam("b") double b) {
-        return processRequest(a, b, "subtract");
+    public CompletableFuture<ResponseEntity<CalculationResponse>> subtract(@RequestParam("a") BigDecimal a, @RequestParam("b") BigDecimal b) {
+        return processRequest(new Calculation("subtract", a, b));
     }
 
     /**
@@ -59,84 +135,594 @@ public class CalculatorController {
      *
      * @param a the first operand
      * @param b the second operand
-     * @return the result of the multiplication operation
+     * @return a future completed with the result of the multiplication operation
      */
     @GetMapping("/multiply")
-    public ResponseEntity<CalculationResponse> multiply(@RequestParam("a") double a, @RequestParam("b") double b) {
-        return processRequest(a, b, "multiply");
+    public CompletableFuture<ResponseEntity<CalculationResponse>> multiply(@RequestParam("a") BigDecimal a, @RequestParam("b") BigDecimal b) {
+        return processRequest(new Calculation("multiply", a, b));
     }
 
     /**
      * Endpoint to handle division requests. It checks if the divisor is zero and returns an error message if so.
+     * A quotient that does not terminate is rounded to the requested precision and rounding mode, by default half up
+     * to 34 significant digits.
      *
      * @param a the numerator
      * @param b the denominator
-     * @return the result of the division operation or an error if division by zero occurs
+     * @param precision the number of significant digits of an inexact quotient, up to calculator.max-precision
+     * @param rounding the rounding mode of an inexact quotient, for example HALF_EVEN
+     * @return a future completed with the result of the division operation or an error if division by zero occurs
      */
     @GetMapping("/divide")
-    public ResponseEntity<CalculationResponse> divide(@RequestParam("a") double a, @RequestParam("b") double b) {
-        if (b == 0) {
-            logger.error("Division by zero error for a: {}, b: {}", a, b);
-            return ResponseEntity.badRequest().body(new CalculationResponse("Error: Division by zero"));
+    public CompletableFuture<ResponseEntity<CalculationResponse>> divide(@RequestParam("a") BigDecimal a, @RequestParam("b") BigDecimal b,
+                                                                         @RequestParam(value = "precision", required = false) Integer precision,
+                                                                         @RequestParam(value = "rounding", required = false) RoundingMode rounding) {
+        return processRequest(new Calculation("divide", a, b, precision, rounding));
+    }
+
+    /**
+     * Endpoint to evaluate a whole arithmetic expression in one round trip, such as (a * b + 3) / 7, instead of chaining
+     * one request per operation. The expression may use decimal numbers, parentheses, the four operations and the
+     * variables a and b, see {@link Expression}. Invalid expressions are refused before anything is sent.
+     *
+     * @param expression the expression to evaluate
+     * @param a the value of the variable a, zero by default
+     * @param b the value of the variable b, zero by default
+     * @param precision the number of significant digits of an inexact quotient, up to calculator.max-precision
+     * @param rounding the rounding mode of an inexact quotient, for example HALF_EVEN
+     * @return a future completed with the value of the expression
+     */
+    @GetMapping("/evaluate")
+    public CompletableFuture<ResponseEntity<CalculationResponse>> evaluate(@RequestParam("expression") String expression,
+                                                                           @RequestParam(value = "a", required = false) BigDecimal a,
+                                                                           @RequestParam(value = "b", required = false) BigDecimal b,
+                                                                           @RequestParam(value = "precision", required = false) Integer precision,
+                                                                           @RequestParam(value = "rounding", required = false) RoundingMode rounding) {
+        return processRequest(new Calculation(Expression.toOperation(expression), a, b, precision, rounding));
+    }
+
+    /**
+     * Endpoint to handle a batch of operations in a single request.
+     * All operations travel to the calculator in one Kafka message and their results come back in one reply,
+     * so a batch costs a single request ID, Kafka record, pending future and reply.
+     *
+     * @param calculations the operations to perform, each with its operands
+     * @return a future completed with the results, in the order of the operations
+     */
+    @PostMapping("/batch")
+    public CompletableFuture<ResponseEntity<List<CalculationResponse>>> batch(@RequestBody List<Calculation> calculations) {
+        if (calculations.isEmpty() || calculations.size() > maxBatchSize) {
+            logger.error("Invalid batch size: {}", calculations.size());
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(List.of(
+                    new CalculationResponse("Error: A batch must hold between 1 and " + maxBatchSize + " operations"))));
+        }
+        for (int i = 0; i < calculations.size(); i++) {
+            String error = validate(calculations.get(i));
+            if (error != null) {
+                logger.error("Invalid operation at index {} of batch: {}", i, error);
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(List.of(
+                        new CalculationResponse("Error: " + error + " at index " + i))));
+            }
+        }
+
+        String requestId = UUID.randomUUID().toString();  // One request ID for the whole batch
+        logger.info(RequestLogSampler.REQUEST, "Received batch request with {} operations", calculations.size());
+        Timer.Sample sample = Timer.start(meterRegistry);
+
+        return executor.execute(requestId, calculations).handle((results, e) -> {
+            ResponseEntity<List<CalculationResponse>> response;
+            if (unwrap(e) instanceof CalculationFailedException failed && failed.getStatus() == ReplyStatus.CLIENT_ERROR
+                    && failed.getResults().size() == calculations.size()) {
+                // Some operations were rejected, the others still have their results
+                logger.error("Batch {} rejected: {}", requestId, failed.getResults());
+                response = ResponseEntity.badRequest()
+                        .header("RequestId", requestId)
+                        .body(failed.getResults().stream().map(CalculationResponse::new).toList());
+            } else if (e != null) {
+                response = errorResponse(requestId, e, message -> List.of(new CalculationResponse(message)));
+            } else {
+                response = ResponseEntity.ok()
+                        .header("RequestId", requestId)
+                        .body(results.stream().map(CalculationResponse::new).toList());
+            }
+            return recordLatency(sample, "batch", response);
+        });
+    }
+
+    /**
+     * Endpoint to stream an unbounded number of operations through one connection.
+     * The body holds one JSON operation per line, for example {"operation":"sum","a":1,"b":2}, and each result is
+     * written back as a JSON line tagged with the zero-based index of its operation, in the order the results arrive.
+     * Operations are read only while fewer than calculator.stream.max-in-flight of them are waiting for a result,
+     * so memory stays flat however large the input is. Every operation is bounded by calculator.reply-timeout and
+     * the stream as a whole by calculator.stream.timeout. At most calculator.stream.max-concurrent streams run at a
+     * time, further ones are refused with 429 Too Many Requests.
+     *
+     * @param body the newline-delimited operations
+     * @return a chunked response emitting one result line per operation, or a 429 response with a single error line
+     */
+    @PostMapping(value = "/stream", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> stream(InputStream body) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(streamTimeout.toMillis());
+        emitter.onTimeout(() -> logger.error("Calculation stream timed out after {}", streamTimeout));
+        try {
+            streamExecutor.execute(() -> {
+                try (BufferedReader input = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+                    streamCalculations(input, new EmitterWriter(emitter));
+                    emitter.complete();
+                } catch (Exception e) {
+                    logger.error("Calculation stream failed: {}", e.getMessage());
+                    emitter.completeWithError(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LoadSheddingException shed = new LoadSheddingException(STREAMS_SHED, retryAfter, false);
+            return errorResponse(UUID.randomUUID().toString(), shed, message -> completeWithLine(emitter, new CalculationResponse(message)));
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    /**
+     * Endpoint to aggregate an array of decimals of any size in one request: their sum, product, mean, min or max,
+     * or the dot product of [x, y] pairs. The body is a JSON array of numbers, or of pairs for dot, and is read as it
+     * arrives rather than bound as a whole, see {@link #aggregateValues(Calculation, JsonParser)}.
+     * The exact mode calculates with decimals like the other endpoints, the double mode with doubles, which is
+     * much cheaper for long products and means but rounds every value to binary.
+     * Aggregates share the calculator.stream.max-concurrent threads of the streams, and are refused with 429 Too Many
+     * Requests while all of them are taken. Like a stream, an aggregate is bounded by calculator.stream.timeout rather
+     * than spring.mvc.async.request-timeout, as reading a large body takes as long as the client needs to send it.
+     *
+     * @param operation the aggregate operation: sum, product, mean, min, max or dot
+     * @param mode the arithmetic, EXACT by default or DOUBLE
+     * @param precision the number of significant digits of an inexact mean, up to calculator.max-precision
+     * @param rounding the rounding mode of an inexact mean, for example HALF_EVEN
+     * @param body the values as a JSON array
+     * @return a deferred result set to the result of the aggregate, or to a 504 response once calculator.stream.timeout
+     *         elapsed
+     */
+    @PostMapping(value = "/aggregate", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<CalculationResponse>> aggregate(@RequestParam("operation") String operation,
+                                                                         @RequestParam(value = "mode", defaultValue = "EXACT") Aggregation.Mode mode,
+                                                                         @RequestParam(value = "precision", required = false) Integer precision,
+                                                                         @RequestParam(value = "rounding", required = false) RoundingMode rounding,
+                                                                         InputStream body) {
+        DeferredResult<ResponseEntity<CalculationResponse>> result = new DeferredResult<>(streamTimeout.toMillis(), () -> {
+            logger.error("Aggregate {} timed out after {}", operation, streamTimeout);
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body(new CalculationResponse("Error: Timed out waiting for the aggregate"));
+        });
+        calculateAggregate(operation, mode, precision, rounding, body).thenAccept(result::setResult);
+        return result;
+    }
+
+    private CompletableFuture<ResponseEntity<CalculationResponse>> calculateAggregate(String operation, Aggregation.Mode mode,
+                                                                                    Integer precision, RoundingMode rounding,
+                                                                                    InputStream body) {
+        String error = null;
+        if (!Aggregation.OPERATIONS.contains(operation)) {
+            error = CalculationEngine.INVALID_OPERATION;
+        } else if (precision != null && (precision < 1 || precision > maxPrecision)) {
+            error = "Precision must be between 1 and " + maxPrecision;
+        }
+        if (error != null) {
+            logger.error("Invalid aggregate {}: {}", operation, error);
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(new CalculationResponse("Error: " + error)));
+        }
+
+        Calculation aggregate = new Calculation(Aggregation.toOperation(operation, mode), null, null, precision, rounding);
+        String requestId = UUID.randomUUID().toString();
+        logger.info(RequestLogSampler.REQUEST, "Received {} aggregate request in {} mode", operation, mode);
+        Timer.Sample sample = Timer.start(meterRegistry);
+
+        CompletableFuture<CompletableFuture<String>> read;
+        try {
+            read = CompletableFuture.supplyAsync(() -> {
+                try (JsonParser input = objectMapper.getFactory().createParser(body)) {
+                    return aggregateValues(aggregate, input);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalArgumentException("Values must be a JSON array of numbers");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, streamExecutor);
+        } catch (RejectedExecutionException e) {
+            read = CompletableFuture.failedFuture(new LoadSheddingException(STREAMS_SHED, retryAfter, false));
+        }
+        return read.thenCompose(Function.identity())
+                .handle((result, e) -> {
+                    if (unwrap(e) instanceof RejectedExecutionException) {  // No thread left to combine the chunks
+                        e = new LoadSheddingException(STREAMS_SHED, retryAfter, false);
+                    }
+                    ResponseEntity<CalculationResponse> response;
+                    if (unwrap(e) instanceof IllegalArgumentException || unwrap(e) instanceof ArithmeticException) {
+                        logger.error("Invalid aggregate {}: {}", requestId, unwrap(e).getMessage());
+                        response = ResponseEntity.badRequest()
+                                .header("RequestId", requestId)
+                                .body(new CalculationResponse("Error: " + unwrap(e).getMessage()));
+                    } else if (e != null) {
+                        response = errorResponse(requestId, e, CalculationResponse::new);
+                    } else {
+                        response = ResponseEntity.ok()
+                                .header("RequestId", requestId)
+                                .body(new CalculationResponse(result));
+                    }
+                    return recordLatency(sample, "aggregate", response);
+                });
+    }
+
+    /**
+     * Reads the values of an aggregate and sends them to the executor in chunks of calculator.aggregate.chunk-size
+     * values, or pairs, while reading on. Each chunk is aggregated on its own, possibly on different calculator
+     * instances, and the partial results are combined once all of them arrived, see {@link Aggregation#combine}.
+     * Only calculator.aggregate.max-in-flight chunks wait for a result at a time; reading pauses until the oldest one
+     * is answered, so memory stays flat however many values the body holds.
+     *
+     * @param aggregate the aggregate operation with the precision and rounding of its mean
+     * @param input the JSON array of values
+     * @return a future completed with the result of the aggregate
+     * @throws IOException if the input cannot be read or is not valid JSON
+     * @throws IllegalArgumentException if the input is not an array of numbers, or of pairs for dot, or is empty
+     * @throws java.util.concurrent.CompletionException if a chunk failed while reading
+     */
+    CompletableFuture<String> aggregateValues(Calculation aggregate, JsonParser input) throws IOException {
+        boolean pairwise = Aggregation.isPairwise(aggregate.operation());
+        String partialOperation = Aggregation.partialOperation(aggregate.operation());
+        List<CompletableFuture<String>> partials = new ArrayList<>();
+        int answered = 0;  // Leading partials known to be complete
+        List<BigDecimal> chunk = new ArrayList<>();
+        int chunkCharacters = 0;
+        long count = 0;
+
+        if (input.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("Values must be a JSON array of numbers");
+        }
+        for (JsonToken token = input.nextToken(); token != JsonToken.END_ARRAY; token = input.nextToken()) {
+            if (pairwise) {
+                if (token != JsonToken.START_ARRAY) {
+                    throw new IllegalArgumentException("Dot product values must be [x, y] pairs");
+                }
+                chunk.add(readValue(input, input.nextToken()));
+                chunkCharacters += input.getTextLength();
+                chunk.add(readValue(input, input.nextToken()));
+                chunkCharacters += input.getTextLength();
+                if (input.nextToken() != JsonToken.END_ARRAY) {
+                    throw new IllegalArgumentException("Dot product values must be [x, y] pairs");
+                }
+            } else {
+                chunk.add(readValue(input, token));
+                chunkCharacters += input.getTextLength();
+            }
+            count++;
+
+            if (chunk.size() >= (pairwise ? 2 * aggregateChunkSize : aggregateChunkSize) || chunkCharacters >= MAX_CHUNK_CHARACTERS) {
+                while (partials.size() - answered >= maxAggregateInFlight) {  // Backpressure: stop reading until a chunk is answered
+                    partials.get(answered).join();
+                    while (answered < partials.size() && partials.get(answered).isDone()) {
+                        partials.get(answered++).join();  // Fails fast on a rejected chunk
+                    }
+                }
+                partials.add(aggregateChunk(partialOperation, chunk));
+                chunk = new ArrayList<>();
+                chunkCharacters = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            partials.add(aggregateChunk(partialOperation, chunk));
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("No values");
+        }
+
+        long total = count;
+        logger.info("Read {} values of an aggregate in {} chunks", total, partials.size());
+        // Combined on the stream executor, the last partial is completed by the reply listener which must not wait for it
+        return CompletableFuture.allOf(partials.toArray(CompletableFuture[]::new))
+                .thenApplyAsync(done -> Aggregation.combine(aggregate, partials.stream().map(CompletableFuture::join).toList(), total),
+                        streamExecutor);
+    }
+
+    private CompletableFuture<String> aggregateChunk(String partialOperation, List<BigDecimal> chunk) {
+        Calculation calculation = new Calculation(partialOperation, null, null, null, null, chunk);
+        return executor.execute(UUID.randomUUID().toString(), List.of(calculation)).thenApply(results -> results.get(0));
+    }
+
+    private static BigDecimal readValue(JsonParser input, JsonToken token) throws IOException {
+        if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT) {
+            throw new IllegalArgumentException("Values must be a JSON array of numbers");
+        }
+        BigDecimal value = input.getDecimalValue();  // Exact, like the operands of the other endpoints
+        String error = CalculationEngine.operandError(value);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        return value;
+    }
+
+    /**
+     * Pipelines the operations read from the input into the executor and writes their results to the output as they complete.
+     * A single thread reads, sends and writes: before each send it first writes out finished results, and waits for
+     * one when the in-flight limit is reached, which stops reading the input until the calculator catches up.
+     *
+     * @param input the newline-delimited operations, blank lines are skipped
+     * @param output receives one JSON line per operation, flushed after each group of finished results
+     * @return the number of operations streamed
+     * @throws IOException if the input cannot be read or the output cannot be written
+     * @throws InterruptedException if interrupted while waiting for a result
+     */
+    long streamCalculations(BufferedReader input, Writer output) throws IOException, InterruptedException {
+        BlockingQueue<StreamedResult> finished = new LinkedBlockingQueue<>();  // Never holds more than maxStreamInFlight results
+        int inFlight = 0;
+        long index = 0;
+
+        String line;
+        while ((line = input.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            while (inFlight >= maxStreamInFlight) {  // Backpressure: stop reading until a result arrives
+                writeResult(output, finished.take());
+                inFlight--;
+            }
+            inFlight -= writeFinished(output, finished);
+
+            long operationIndex = index++;
+            Calculation calculation;
+            try {
+                calculation = objectMapper.readValue(line, Calculation.class);
+            } catch (JsonProcessingException e) {
+                logger.error("Invalid operation at index {} of stream: {}", operationIndex, e.getOriginalMessage());
+                finished.add(new StreamedResult(operationIndex, "Error: Invalid operation"));
+                inFlight++;
+                continue;
+            }
+            String error = validate(calculation);
+            if (error != null) {
+                logger.error("Invalid operation at index {} of stream: {}", operationIndex, error);
+                finished.add(new StreamedResult(operationIndex, "Error: " + error));
+                inFlight++;
+                continue;
+            }
+
+            String requestId = UUID.randomUUID().toString();
+            inFlight++;
+            calculate(requestId, calculation).handle((result, e) -> finished.add(e == null
+                    ? new StreamedResult(operationIndex, result)
+                    : new StreamedResult(operationIndex, errorResponse(requestId, e, Function.identity()).getBody())));
+        }
+
+        while (inFlight > 0) {  // Drain the results still pending once the input is exhausted
+            writeResult(output, finished.take());
+            inFlight--;
+            inFlight -= writeFinished(output, finished);
+            output.flush();
+        }
+        output.flush();
+        logger.info("Streamed {} operations", index);
+        return index;
+    }
+
+    /**
+     * Writes every result already finished, without waiting, and flushes them as one chunk.
+     *
+     * @return the number of results written
+     */
+    private int writeFinished(Writer output, BlockingQueue<StreamedResult> finished) throws IOException {
+        int written = 0;
+        StreamedResult result;
+        while ((result = finished.poll()) != null) {
+            writeResult(output, result);
+            written++;
+        }
+        if (written > 0) {
+            output.flush();
         }
-        return processRequest(a, b, "divide");
+        return written;
+    }
+
+    private void writeResult(Writer output, StreamedResult result) throws IOException {
+        output.write(objectMapper.writeValueAsString(result));
+        output.write('\n');
+    }
+
+    /**
+     * Checks an operation before it is sent to the calculator.
+     *
+     * @param calculation the operation to check
+     * @return the reason the operation is rejected, or null if it is valid
+     */
+    private String validate(Calculation calculation) {
+        if (calculation == null || calculation.operation() == null || calculation.a() == null || calculation.b() == null) {
+            return "Missing operation or operand";
+        }
+        if (Expression.isExpression(calculation.operation())) {
+            try {
+                expressionCache.get(calculation.operation());
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        } else if (!OPERATIONS.contains(calculation.operation())) {
+            return CalculationEngine.INVALID_OPERATION;
+        }
+        String operandError = CalculationEngine.operandError(calculation.a());
+        if (operandError != null || (operandError = CalculationEngine.operandError(calculation.b())) != null) {
+            return operandError;
+        }
+        if ("divide".equals(calculation.operation()) && calculation.b().signum() == 0) {
+            return "Division by zero";
+        }
+        if (calculation.precision() != null && (calculation.precision() < 1 || calculation.precision() > maxPrecision)) {
+            return "Precision must be between 1 and " + maxPrecision;
+        }
+        return null;
     }
 
     /**
      * Method to process any calculation request (sum, subtract, multiply, or divide).
-     * It sends the calculation request to Kafka and waits for the result.
+     * It hands the calculation to the executor and returns a future that completes when the result arrives,
+     * or with a 504 response once the configured reply timeout elapses.
      *
-     * @param a the first operand
-     * @param b the second operand
-     * @param operation the operation to be performed (sum, subtract, multiply, or divide)
-     * @return a ResponseEntity containing the result and a RequestId in the header
+     * @param calculation the operation to be performed (sum, subtract, multiply, or divide) and its operands
+     * @return a future of the ResponseEntity containing the result and a RequestId in the header
      */
-    private ResponseEntity<CalculationResponse> processRequest(double a, double b, String operation) {
+    private CompletableFuture<ResponseEntity<CalculationResponse>> processRequest(Calculation calculation) {
+        String error = validate(calculation);
+        if (error != null) {
+            logger.error("Invalid {} request for a: {} and b: {}: {}", calculation.operation(), calculation.a(), calculation.b(), error);
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(new CalculationResponse("Error: " + error)));
+        }
+
         String requestId = UUID.randomUUID().toString();  // Generate a unique request ID
-        String message = String.join(",", requestId, operation, String.valueOf(a), String.valueOf(b));
+        logger.info(RequestLogSampler.REQUEST, "Received {} request for a: {} and b: {}", calculation.operation(), calculation.a(), calculation.b());
+        Timer.Sample sample = Timer.start(meterRegistry);
 
-        CompletableFuture<String> responseFuture = new CompletableFuture<>();
-        responseFutures.put(requestId, responseFuture);
+        return calculate(requestId, calculation).handle((result, e) -> {
+            ResponseEntity<CalculationResponse> response = e != null
+                    ? errorResponse(requestId, e, CalculationResponse::new)
+                    : ResponseEntity.ok()
+                            .header("RequestId", requestId)
+                            .body(new CalculationResponse(result));
+            return recordLatency(sample, Expression.isExpression(calculation.operation()) ? "expression" : calculation.operation(), response);
+        });
+    }
 
-        kafkaTemplate.send(INPUT_TOPIC, requestId, message);
+    /**
+     * Stops the latency sample of a request with the timer of its operation and response status.
+     *
+     * @param sample the sample started when the request was received
+     * @param operation the operation of the request, expression or batch
+     * @param response the response about to be returned
+     * @return the response
+     */
+    private <T> ResponseEntity<T> recordLatency(Timer.Sample sample, String operation, ResponseEntity<T> response) {
+        sample.stop(meterRegistry.timer("calculator.requests",
+                "operation", operation, "status", String.valueOf(response.getStatusCode().value())));
+        return response;
+    }
 
-        try {
-            logger.info("Received {} request for a: {} and b: {}", operation, a, b);
+    /**
+     * Returns the result of a single calculation, from the result cache when possible.
+     * On a miss the calculation is executed under the given request ID, and identical calculations arriving
+     * meanwhile wait for that same execution instead of starting their own.
+     *
+     * @param requestId the unique ID used if the calculation has to be executed
+     * @param calculation the calculation to perform
+     * @return a future completed with the result
+     */
+    private CompletableFuture<String> calculate(String requestId, Calculation calculation) {
+        if (resultCache == null) {
+            return executor.execute(requestId, List.of(calculation)).thenApply(results -> results.get(0));
+        }
+        return resultCache.get(calculation, key -> executor.execute(requestId, List.of(key)).thenApply(results -> results.get(0)));
+    }
 
-            String result = responseFuture.get(30, TimeUnit.SECONDS);
-            CalculationResponse response = new CalculationResponse(result);
+    /**
+     * Rejects request parameters that cannot be converted, such as operands that are not decimal numbers or unknown
+     * rounding modes. Operands are bound as exact decimals, so "0.1" stays 0.1 instead of the nearest binary double.
+     *
+     * @param e the failed conversion of a request parameter
+     * @return a 400 response naming the parameter
+     */
+    @ExceptionHandler(MethodArgumentTypeMismatchException.class)
+    public ResponseEntity<CalculationResponse> invalidParameter(MethodArgumentTypeMismatchException e) {
+        logger.error("Invalid value for {}: {}", e.getName(), e.getValue());
+        return ResponseEntity.badRequest().body(new CalculationResponse("Error: Invalid value for " + e.getName()));
+    }
 
-            return ResponseEntity.ok()
+    /**
+     * Builds the error response for a request whose results could not be obtained.
+     *
+     * @param requestId the unique ID of the request
+     * @param e the failure of the pending future
+     * @param body creates the response body from an error message
+     * @return a 400 response if the calculator rejected the request, a 429 or 503 response with a Retry-After header
+     *         if the request was shed, a 504 response if the reply timed out, or a 500 response otherwise
+     */
+    private static <T> ResponseEntity<T> errorResponse(String requestId, Throwable e, Function<String, T> body) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof LoadSheddingException shed) {
+            logger.warn("Shed request {}: {}", requestId, shed.getMessage());
+            long retryAfterSeconds = Math.max(1, (shed.getRetryAfter().toMillis() + 999) / 1000);  // Rounded up to whole seconds
+            return ResponseEntity.status(shed.isCircuitOpen() ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.TOO_MANY_REQUESTS)
                     .header("RequestId", requestId)
-                    .body(response);
-
-        } catch (Exception e) {
-            logger.error("Error processing request for {}: {}", requestId, e.getMessage(), e);  
-            throw new RuntimeException("Failed to get response from Kafka", e);
-        } finally {
-            responseFutures.remove(requestId);
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(body.apply("Error: " + shed.getMessage()));
+        }
+        if (cause instanceof CalculationFailedException failed && failed.getStatus() == ReplyStatus.CLIENT_ERROR) {
+            logger.error("Calculator rejected request {}: {}", requestId, failed.getMessage());
+            return ResponseEntity.badRequest()
+                    .header("RequestId", requestId)
+                    .body(body.apply("Error: " + failed.getMessage()));
+        }
+        if (cause instanceof CalculationFailedException failed) {
+            logger.error("Calculator failed to process request {}: {}", requestId, failed.getMessage());
+            return ResponseEntity.internalServerError()
+                    .header("RequestId", requestId)
+                    .body(body.apply("Error: Calculation failed"));
         }
+        if (cause instanceof TimeoutException) {
+            logger.error("Timed out waiting for the result of {}", requestId);
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .header("RequestId", requestId)
+                    .body(body.apply("Error: Timed out waiting for calculation result"));
+        }
+        logger.error("Error processing request for {}: {}", requestId, cause.getMessage(), cause);
+        return ResponseEntity.internalServerError()
+                .header("RequestId", requestId)
+                .body(body.apply("Error: Failed to get response from Kafka"));
+    }
+
+    /**
+     * @return the cause of a failure wrapped by a dependent future, or the failure itself
+     */
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
     }
 
     /**
-     * Kafka listener that listens for the results of the calculations from Kafka and completes the pending request.
+     * Sends a single JSON line and completes the emitter, for a stream refused before it started.
      *
-     * @param message the result message containing the requestId and the result
+     * @return the emitter
      */
-    @KafkaListener(topics = OUTPUT_TOPIC, groupId = "calculator-group")
-    public void listenToResults(String message) {
+    private ResponseBodyEmitter completeWithLine(ResponseBodyEmitter emitter, Object line) {
         try {
-            String[] parts = message.split(",");
-            if (parts.length < 2) throw new IllegalArgumentException("Invalid message format: " + message);
+            emitter.send(objectMapper.writeValueAsString(line) + "\n", MediaType.TEXT_PLAIN);
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
 
-            CompletableFuture<String> responseFuture = responseFutures.get(parts[0]);
-            if (responseFuture != null) {
-                responseFuture.complete(parts[1]);
-            } else {
-                logger.error("No pending request for requestId: {}", parts[0]);
+    /**
+     * Writer that sends everything written since the last flush as one chunk of the response.
+     */
+    private static class EmitterWriter extends Writer {
+
+        private final ResponseBodyEmitter emitter;
+        private final StringBuilder chunk = new StringBuilder();
+
+        EmitterWriter(ResponseBodyEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            chunk.append(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!chunk.isEmpty()) {
+                emitter.send(chunk.toString(), MediaType.TEXT_PLAIN);
+                chunk.setLength(0);
             }
-        } catch (Exception e) {
-            logger.error("Error processing Kafka message: {}", message, e);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
         }
     }
 }
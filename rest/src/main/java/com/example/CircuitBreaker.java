@@ -0,0 +1,142 @@
+package com.example;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker in front of the calculator, fed with the outcome of every request.
+ * It keeps the outcomes of the last window-size requests and opens once the share of failed requests (timeouts and
+ * server errors) or of slow replies reaches its threshold. While open, requests are refused without being sent;
+ * after the open duration a single probe request is let through, which closes the circuit if it succeeds in time
+ * and opens it again otherwise. Only the probe decides: outcomes of requests sent before the circuit opened are
+ * ignored until the circuit closes again.
+ */
+public class CircuitBreaker {
+
+    /** State of the circuit. */
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Answer to a request for permission to send, see {@link #tryAcquire()}. */
+    public enum Permit { REFUSED, GRANTED, PROBE }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private final byte[] window;  // Ring buffer of the latest outcomes
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int recorded;  // Number of outcomes in the window, up to its size
+    private int next;  // Position of the next outcome in the window
+    private int failures;
+    private int slowCalls;
+    private long openUntil;  // System.nanoTime() at which an open circuit lets a probe through
+    private boolean probing;  // Whether the probe of a half open circuit is still in flight
+
+    /**
+     * @param windowSize the number of latest requests the rates are taken over, and the minimum before the circuit can open
+     * @param failureRateThreshold the share of failed requests, from 0 to 1, at which the circuit opens
+     * @param slowCallRateThreshold the share of slow replies, from 0 to 1, at which the circuit opens
+     * @param slowCallDuration the reply latency above which a request counts as slow
+     * @param openDuration how long the circuit stays open before it lets a probe through
+     */
+    public CircuitBreaker(int windowSize, double failureRateThreshold, double slowCallRateThreshold,
+                          Duration slowCallDuration, Duration openDuration) {
+        this.window = new byte[windowSize];
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Asks permission to send a request.
+     *
+     * @return GRANTED if the circuit is closed, PROBE for the single probe of a half open circuit, whose outcome must
+     *         be recorded as such, or REFUSED if the circuit is open or its probe is still in flight
+     */
+    public synchronized Permit tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return Permit.PROBE;
+        }
+        return state == State.CLOSED ? Permit.GRANTED : Permit.REFUSED;
+    }
+
+    /**
+     * Records a request that got its reply.
+     *
+     * @param latencyNanos the time from sending the request to receiving its reply
+     * @param probe whether the request was sent with a PROBE permit
+     */
+    public synchronized void onSuccess(long latencyNanos, boolean probe) {
+        record(latencyNanos > slowCallNanos ? SLOW : SUCCESS, probe);
+    }
+
+    /**
+     * Records a request that timed out or failed in the calculator.
+     *
+     * @param probe whether the request was sent with a PROBE permit
+     */
+    public synchronized void onFailure(boolean probe) {
+        record(FAILURE, probe);
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return how long until an open circuit lets a probe through, zero when it is not open
+     */
+    public synchronized Duration retryAfter() {
+        return state == State.OPEN ? Duration.ofNanos(Math.max(0, openUntil - System.nanoTime())) : Duration.ZERO;
+    }
+
+    private void record(byte outcome, boolean probe) {
+        if (state == State.HALF_OPEN) {
+            if (!probe) {
+                return;  // Late outcomes of requests sent before the circuit opened, only the probe decides
+            }
+            if (outcome == SUCCESS) {
+                state = State.CLOSED;
+                recorded = next = failures = slowCalls = 0;  // Start over with an empty window
+            } else {
+                open();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;  // Late outcomes of requests sent before the circuit opened
+        }
+        if (recorded == window.length) {
+            failures -= window[next] == FAILURE ? 1 : 0;
+            slowCalls -= window[next] == SLOW ? 1 : 0;
+        } else {
+            recorded++;
+        }
+        window[next] = outcome;
+        next = (next + 1) % window.length;
+        failures += outcome == FAILURE ? 1 : 0;
+        slowCalls += outcome == SLOW ? 1 : 0;
+
+        if (recorded == window.length && (failures >= failureRateThreshold * recorded || slowCalls >= slowCallRateThreshold * recorded)) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.nanoTime() + openNanos;
+    }
+}
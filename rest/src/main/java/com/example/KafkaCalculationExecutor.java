@@ -0,0 +1,245 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+
+/**
+ * Executor that sends the calculations to the calculator service through Kafka and waits for the results asynchronously.
+ * Results are received on the reply topic of this instance, see {@link ReplyTopicConfig}, and complete the pending
+ * request with the same request ID.
+ * The number of pending requests is capped, and requests beyond the cap or refused by the circuit breaker fail at once
+ * with a {@link LoadSheddingException}, so memory stays bounded and clients are not left waiting while the calculator
+ * is unhealthy. A background sweeper fails the pending requests whose reply timeout has elapsed.
+ * Kafka send latency, the number of pending requests, replies without a pending request and timeouts are published
+ * as calculator.* metrics.
+ */
+public class KafkaCalculationExecutor implements CalculationExecutor, AutoCloseable {
+
+    private static final String INPUT_TOPIC = "calculation-requests";
+    private static final Logger logger = LoggerFactory.getLogger(KafkaCalculationExecutor.class);
+    private static final long MAX_SWEEP_INTERVAL_MILLIS = 1000;
+    final ConcurrentHashMap<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+
+    private final KafkaTemplate<String, CalculationRequest> kafkaTemplate;  // Kafka template for sending messages to Kafka
+    private final String replyTopic;  // Topic on which this instance receives its results
+    private final long replyTimeoutNanos;  // Maximum time to wait for a result
+    private final int maxInFlight;  // Maximum number of pending requests
+    private final Duration retryAfter;  // Delay suggested to clients refused by the in-flight limit
+    private final CircuitBreaker circuitBreaker;  // Null when every request is sent
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ScheduledExecutorService sweeper;
+    private final Timer sendSuccessTimer;  // Time from send to broker acknowledgement
+    private final Timer sendFailureTimer;  // Time from send to failure
+    private final Counter orphanedReplies;  // Replies whose request already completed or belongs to no one
+    private final Counter timeouts;  // Requests failed by the sweeper
+
+    /**
+     * A request waiting for its results.
+     *
+     * @param future the future completed with the results
+     * @param sentAt the System.nanoTime() at which the request was sent
+     * @param probe whether the request is the probe of a half open circuit breaker
+     */
+    record PendingRequest(CompletableFuture<List<String>> future, long sentAt, boolean probe) {
+    }
+
+    /**
+     * Creates an executor without an in-flight limit or circuit breaker.
+     *
+     * @param kafkaTemplate the KafkaTemplate to send the requests with
+     * @param replyTopic the topic on which this instance receives its results
+     * @param replyTimeout the maximum time to wait for the results of a request
+     */
+    public KafkaCalculationExecutor(KafkaTemplate<String, CalculationRequest> kafkaTemplate, String replyTopic, Duration replyTimeout) {
+        this(kafkaTemplate, replyTopic, replyTimeout, Integer.MAX_VALUE, Duration.ZERO, null);
+    }
+
+    /**
+     * @param kafkaTemplate the KafkaTemplate to send the requests with
+     * @param replyTopic the topic on which this instance receives its results
+     * @param replyTimeout the maximum time to wait for the results of a request
+     * @param maxInFlight the maximum number of requests waiting for their results
+     * @param retryAfter the delay suggested to clients refused by the in-flight limit
+     * @param circuitBreaker the circuit breaker fed with the outcome of every request, or null to always send
+     */
+    public KafkaCalculationExecutor(KafkaTemplate<String, CalculationRequest> kafkaTemplate, String replyTopic, Duration replyTimeout,
+                                    int maxInFlight, Duration retryAfter, CircuitBreaker circuitBreaker) {
+        this(kafkaTemplate, replyTopic, replyTimeout, maxInFlight, retryAfter, circuitBreaker, new SimpleMeterRegistry());
+    }
+
+    /**
+     * @param kafkaTemplate the KafkaTemplate to send the requests with
+     * @param replyTopic the topic on which this instance receives its results
+     * @param replyTimeout the maximum time to wait for the results of a request
+     * @param maxInFlight the maximum number of requests waiting for their results
+     * @param retryAfter the delay suggested to clients refused by the in-flight limit
+     * @param circuitBreaker the circuit breaker fed with the outcome of every request, or null to always send
+     * @param meterRegistry the registry the executor metrics are published to
+     */
+    public KafkaCalculationExecutor(KafkaTemplate<String, CalculationRequest> kafkaTemplate, String replyTopic, Duration replyTimeout,
+                                    int maxInFlight, Duration retryAfter, CircuitBreaker circuitBreaker, MeterRegistry meterRegistry) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.replyTopic = replyTopic;
+        this.replyTimeoutNanos = replyTimeout.toNanos();
+        this.maxInFlight = maxInFlight;
+        this.retryAfter = retryAfter;
+        this.circuitBreaker = circuitBreaker;
+
+        this.sendSuccessTimer = sendTimer(meterRegistry, "success");
+        this.sendFailureTimer = sendTimer(meterRegistry, "failure");
+        this.orphanedReplies = Counter.builder("calculator.replies.orphaned")
+                .description("Replies received with no pending request")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("calculator.requests.timeouts")
+                .description("Requests that got no reply within the reply timeout")
+                .register(meterRegistry);
+        Gauge.builder("calculator.requests.pending", pendingRequests, ConcurrentHashMap::size)
+                .description("Requests waiting for their results")
+                .register(meterRegistry);
+
+        // Sweep often enough that a request never waits much longer than its timeout
+        long sweepInterval = Math.max(1, Math.min(MAX_SWEEP_INTERVAL_MILLIS, replyTimeout.toMillis() / 10));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reply-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the calculations to Kafka as one request and registers a pending future for its results.
+     * The future fails with a TimeoutException once the reply timeout elapses, or at once with a
+     * {@link LoadSheddingException} when the request is refused. The pending entry is removed as soon as the future
+     * completes either way.
+     */
+    @Override
+    public CompletableFuture<List<String>> execute(String requestId, List<Calculation> calculations) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            return CompletableFuture.failedFuture(
+                    new LoadSheddingException("Too many requests in flight", retryAfter, false));
+        }
+        CircuitBreaker.Permit permit = circuitBreaker != null ? circuitBreaker.tryAcquire() : CircuitBreaker.Permit.GRANTED;
+        if (permit == CircuitBreaker.Permit.REFUSED) {
+            inFlight.decrementAndGet();
+            return CompletableFuture.failedFuture(
+                    new LoadSheddingException("Calculator unavailable", circuitBreaker.retryAfter(), true));
+        }
+
+        PendingRequest pending = new PendingRequest(new CompletableFuture<>(), System.nanoTime(), permit == CircuitBreaker.Permit.PROBE);
+        pendingRequests.put(requestId, pending);
+        // Runs before any stage of the caller, so the metrics are up to date once the client sees the response
+        CompletableFuture<List<String>> responseFuture = pending.future().whenComplete((results, e) -> {
+            pendingRequests.remove(requestId);
+            inFlight.decrementAndGet();
+            if (e instanceof TimeoutException) {
+                timeouts.increment();
+            }
+            recordOutcome(pending, e);
+        });
+
+        ProducerRecord<String, CalculationRequest> record =
+                new ProducerRecord<>(INPUT_TOPIC, requestId, new CalculationRequest(requestId, calculations));
+        record.headers().add(KafkaHeaders.REPLY_TOPIC, replyTopic.getBytes(StandardCharsets.UTF_8));
+        record.headers().add(CalculationRequest.SENT_AT_HEADER,
+                Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+        long sendStart = System.nanoTime();
+        try {
+            kafkaTemplate.send(record).whenComplete((sent, e) -> {
+                (e == null ? sendSuccessTimer : sendFailureTimer).record(System.nanoTime() - sendStart, TimeUnit.NANOSECONDS);
+                if (e != null) {
+                    pending.future().completeExceptionally(e);  // Fail at once instead of waiting for the timeout
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.future().completeExceptionally(e);
+        }
+        return responseFuture;
+    }
+
+    /**
+     * Kafka listener that listens for the results of the calculations from Kafka and completes the pending request.
+     * It consumes the reply topic of this instance in a consumer group of its own, so no other instance takes its results.
+     * A reply with an error status fails the pending request right away with a {@link CalculationFailedException}.
+     *
+     * @param reply the result message containing the requestId, the status and the results
+     */
+    @KafkaListener(topics = "#{@replyTopic}", groupId = "#{@replyTopic}")
+    public void listenToResults(CalculationReply reply) {
+        PendingRequest pending = pendingRequests.get(reply.requestId());
+        if (pending == null) {
+            orphanedReplies.increment();
+            logger.error("No pending request for requestId: {}", reply.requestId());
+        } else if (reply.status() == ReplyStatus.OK) {
+            pending.future().complete(reply.results());
+        } else {
+            pending.future().completeExceptionally(new CalculationFailedException(reply.status(), reply.results()));
+        }
+    }
+
+    /**
+     * Stops the sweeper. Requests still pending are no longer timed out.
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Fails every pending request whose reply timeout has elapsed, and drops entries whose future already completed
+     * without being removed.
+     */
+    void sweep() {
+        long now = System.nanoTime();
+        pendingRequests.forEach((requestId, pending) -> {
+            if (pending.future().isDone()) {
+                pendingRequests.remove(requestId, pending);
+            } else if (now - pending.sentAt() >= replyTimeoutNanos) {
+                pending.future().completeExceptionally(new TimeoutException("No result for " + requestId));  // Counted in execute
+            }
+        });
+    }
+
+    private static Timer sendTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("calculator.kafka.send")
+                .description("Time for the broker to acknowledge a request")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Feeds the outcome of a completed request to the circuit breaker. Requests the calculator rejected still count
+     * as successes, as the calculator answered them.
+     */
+    private void recordOutcome(PendingRequest pending, Throwable e) {
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (e == null || e instanceof CalculationFailedException failed && failed.getStatus() == ReplyStatus.CLIENT_ERROR) {
+            circuitBreaker.onSuccess(System.nanoTime() - pending.sentAt(), pending.probe());
+        } else {
+            circuitBreaker.onFailure(pending.probe());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example;
+
+import java.time.Duration;
+
+/**
+ * Refusal of a request that was not sent to the calculator because this instance is shedding load, either because
+ * too many requests are already waiting for their results or because the calculator is considered unhealthy.
+ * Clients are told to retry after the given delay.
+ */
+public class LoadSheddingException extends RuntimeException {
+
+    private final Duration retryAfter;
+    private final boolean circuitOpen;
+
+    /**
+     * @param message the reason the request was refused
+     * @param retryAfter how long the client should wait before retrying
+     * @param circuitOpen whether the request was refused by the open circuit breaker rather than the in-flight limit
+     */
+    public LoadSheddingException(String message, Duration retryAfter, boolean circuitOpen) {
+        super(message);
+        this.retryAfter = retryAfter;
+        this.circuitOpen = circuitOpen;
+    }
+
+    /**
+     * @return how long the client should wait before retrying
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return whether the request was refused by the open circuit breaker rather than the in-flight limit
+     */
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+}
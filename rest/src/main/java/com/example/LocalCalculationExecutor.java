@@ -0,0 +1,87 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+
+/**
+ * Executor that performs the calculations in process with the same {@link CalculationEngine}, {@link ExpressionCache}
+ * and {@link Aggregation} as the calculator service, so results are returned without any Kafka round trip.
+ * Aggregates are reduced in parallel from the default threshold of {@link Aggregation#DEFAULT_PARALLEL_THRESHOLD} values.
+ * With an audit template, every request is also published to the audit topic without waiting for the broker,
+ * so the audit log never adds to the response time. The template should have a short max.block.ms, as the send blocks
+ * while the producer fetches metadata or its buffer is full, see CalculationExecutorConfig.
+ */
+public class LocalCalculationExecutor implements CalculationExecutor {
+
+    static final String AUDIT_TOPIC = "calculation-audit";
+    private static final Logger logger = LoggerFactory.getLogger(LocalCalculationExecutor.class);
+
+    private final KafkaTemplate<String, CalculationRequest> auditTemplate;  // Null when requests are not audited
+    private final ExpressionCache expressionCache;
+
+    /**
+     * Creates an executor with an expression cache of its own.
+     *
+     * @param auditTemplate the KafkaTemplate to publish the audit log with, or null to skip the audit log
+     */
+    public LocalCalculationExecutor(KafkaTemplate<String, CalculationRequest> auditTemplate) {
+        this(auditTemplate, new ExpressionCache(10_000));
+    }
+
+    /**
+     * @param auditTemplate the KafkaTemplate to publish the audit log with, or null to skip the audit log
+     * @param expressionCache the compiled expressions
+     */
+    public LocalCalculationExecutor(KafkaTemplate<String, CalculationRequest> auditTemplate, ExpressionCache expressionCache) {
+        this.auditTemplate = auditTemplate;
+        this.expressionCache = expressionCache;
+    }
+
+    @Override
+    public CompletableFuture<List<String>> execute(String requestId, List<Calculation> calculations) {
+        List<String> results = new ArrayList<>(calculations.size());
+        boolean rejected = false;
+        try {
+            for (Calculation calculation : calculations) {
+                String result;
+                if (Expression.isExpression(calculation.operation())) {
+                    result = expressionCache.evaluate(calculation);
+                } else if (Aggregation.isAggregate(calculation.operation())) {
+                    result = Aggregation.aggregate(calculation, Aggregation.DEFAULT_PARALLEL_THRESHOLD);
+                } else {
+                    result = CalculationEngine.calculate(calculation);
+                }
+                rejected |= CalculationEngine.INVALID_OPERATION.equals(result);
+                results.add(result);
+            }
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            logger.error("Error calculating request {}: {}", requestId, e.getMessage());
+            return CompletableFuture.failedFuture(new CalculationFailedException(ReplyStatus.CLIENT_ERROR, List.of(e.getMessage())));
+        }
+        if (rejected) {
+            logger.error("Invalid operation in request {}", requestId);
+            return CompletableFuture.failedFuture(new CalculationFailedException(ReplyStatus.CLIENT_ERROR, results));
+        }
+
+        if (auditTemplate != null) {
+            // Fire and forget: failures are only logged, the results are already known
+            try {
+                auditTemplate.send(new ProducerRecord<>(AUDIT_TOPIC, requestId, new CalculationRequest(requestId, calculations)))
+                        .whenComplete((sent, e) -> {
+                            if (e != null) {
+                                logger.error("Failed to audit request {}: {}", requestId, e.getMessage());
+                            }
+                        });
+            } catch (RuntimeException e) {  // Thrown by the send itself, for example when max.block.ms ran out
+                logger.error("Failed to audit request {}: {}", requestId, e.getMessage());
+            }
+        }
+        return CompletableFuture.completedFuture(results);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+/**
+ * Configuration class that gives every rest instance its own reply topic.
+ * Each request carries the name of this topic in its reply topic header, so the calculator sends every result
+ * back to the instance that holds the pending request, however many rest replicas are running.
+ */
+@Configuration
+public class ReplyTopicConfig {
+
+    private static final String REPLY_TOPIC_PREFIX = "calculation-results-";
+
+    /**
+     * Name of the reply topic of this instance, which also names its consumer group. When no instance ID is configured
+     * it defaults to the host name and server port, which stay the same across restarts, so a restarted instance
+     * reuses its topic and group instead of leaving a new pair behind every time. A random port tells nothing apart,
+     * so with port 0 a random suffix takes its place, at the cost of a new topic and group on every start.
+     * Instances sharing both a host name and a port, such as containers given the same host name, need an instance ID.
+     *
+     * @param instanceId the unique ID of this rest instance, or empty for the default
+     * @param serverPort the port of this instance, telling apart instances on one host, or 0 for a random port
+     * @return the reply topic name
+     * @throws IllegalStateException if no instance ID is configured and the host name cannot be resolved
+     */
+    @Bean
+    public String replyTopic(@Value("${calculator.instance-id:}") String instanceId,
+                             @Value("${server.port:8080}") int serverPort) {
+        if (instanceId.isBlank()) {
+            try {
+                String suffix = serverPort == 0 ? UUID.randomUUID().toString() : String.valueOf(serverPort);
+                instanceId = InetAddress.getLocalHost().getHostName() + "-" + suffix;
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException("Cannot resolve the host name, set calculator.instance-id", e);
+            }
+        }
+        return REPLY_TOPIC_PREFIX + instanceId;
+    }
+
+    /**
+     * Creates the reply topic of this instance on startup if it does not exist yet.
+     *
+     * @param replyTopic the reply topic name
+     * @return the topic definition picked up by the KafkaAdmin
+     */
+    @Bean
+    public NewTopic replyTopicDefinition(String replyTopic) {
+        return TopicBuilder.name(replyTopic).partitions(1).build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Bounded cache of calculation results in front of the Kafka round trip to the calculator.
+ * Entries are keyed on the calculation itself, so operands only match when their values and scales are equal,
+ * as the calculator formats results with the scale of the operands. Eviction follows Caffeine's W-TinyLFU policy
+ * once the maximum size is reached, and entries expire a fixed time after they are written.
+ * The cache holds futures, so concurrent identical calculations share the one request that is in flight.
+ */
+public class ResultCache {
+
+    private final AsyncCache<Calculation, String> cache;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maximumSize the maximum number of results kept
+     * @param timeToLive how long a result is kept after it arrived
+     */
+    public ResultCache(long maximumSize, Duration timeToLive) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Returns the result of a calculation, from the cache or from the loader.
+     * The loader is only called when the calculation is neither cached nor already in flight. Rejected and failed
+     * calculations complete their future exceptionally, which the cache drops, so the next identical calculation is retried.
+     *
+     * @param calculation the calculation to look up
+     * @param loader sends the calculation to the calculator
+     * @return a future completed with the result
+     */
+    public CompletableFuture<String> get(Calculation calculation, Function<Calculation, CompletableFuture<String>> loader) {
+        return cache.get(calculation, (key, executor) -> loader.apply(key));
+    }
+
+    /**
+     * @return the hit, miss and eviction counts since the cache was created
+     */
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+
+    /**
+     * @return the underlying cache, for binding metrics
+     */
+    AsyncCache<Calculation, String> cache() {
+        return cache;
+    }
+}
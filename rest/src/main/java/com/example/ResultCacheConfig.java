@@ -0,0 +1,37 @@
+package com.example;
+
+import java.time.Duration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration class that puts a result cache in front of the calculator.
+ * The cache is on unless calculator.cache.enabled is set to false, and its hit, miss and eviction counts are
+ * published as cache.* metrics tagged with cache=calculation-results.
+ */
+@Configuration
+public class ResultCacheConfig {
+
+    /**
+     * Creates the result cache and binds its statistics to the meter registry.
+     *
+     * @param maximumSize the maximum number of results kept
+     * @param timeToLive how long a result is kept after it arrived
+     * @param meterRegistry the registry the cache metrics are published to
+     * @return the result cache used by the controller
+     */
+    @Bean
+    @ConditionalOnProperty(name = "calculator.cache.enabled", havingValue = "true", matchIfMissing = true)
+    public ResultCache resultCache(@Value("${calculator.cache.maximum-size:10000}") long maximumSize,
+                                   @Value("${calculator.cache.time-to-live:10m}") Duration timeToLive,
+                                   MeterRegistry meterRegistry) {
+        ResultCache resultCache = new ResultCache(maximumSize, timeToLive);
+        CaffeineCacheMetrics.monitor(meterRegistry, resultCache.cache(), "calculation-results");
+        return resultCache;
+    }
+}
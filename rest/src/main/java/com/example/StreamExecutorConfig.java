@@ -0,0 +1,33 @@
+package com.example;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Configuration class for the threads of the long-lived requests, which read their body and write their results on one
+ * thread for as long as the request lasts. They get a pool of their own, kept apart from Spring's application task
+ * executor, and a request arriving while every thread is taken is refused at once rather than queued.
+ */
+@Configuration
+public class StreamExecutorConfig {
+
+    /**
+     * Creates the executor of the streams and aggregates, which also combines the chunks of an aggregate. It is only
+     * injected where asked for by name, and leaves the application task executor of Spring Boot in place.
+     *
+     * @param maxConcurrent the maximum number of streams and aggregates running at a time
+     * @return the executor, rejecting tasks with a RejectedExecutionException once all its threads are busy
+     */
+    @Bean(defaultCandidate = false)
+    public ThreadPoolTaskExecutor streamExecutor(@Value("${calculator.stream.max-concurrent:64}") int maxConcurrent) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxConcurrent);
+        executor.setMaxPoolSize(maxConcurrent);
+        executor.setQueueCapacity(0);  // Hands tasks straight to a thread, or rejects them
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("stream-");
+        return executor;
+    }
+}
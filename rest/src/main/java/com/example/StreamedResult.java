@@ -0,0 +1,10 @@
+package com.example;
+
+/**
+ * One line of the response of the streaming endpoint.
+ *
+ * @param index the zero-based index of the operation in the input stream
+ * @param result the result of the operation, or an error message
+ */
+public record StreamedResult(long index, String result) {
+}
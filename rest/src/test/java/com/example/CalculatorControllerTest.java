@@ -1,57 +1,816 @@
-// Couldn't finish the test class
-// When mocking the Rest call, the CalculatorController is waiting for the kafka message
-// but it is never received since the Test class is waiting for the Rest response and the Main class waiting for the kafka message
-// I get a deadlock
-
-// package com.example;
-
-// import org.junit.jupiter.api.BeforeEach;
-// import org.junit.jupiter.api.Test;
-// import org.mockito.InjectMocks;
-// import org.mockito.Mock;
-// import org.springframework.beans.factory.annotation.Autowired;
-// import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
-// import org.springframework.boot.test.context.SpringBootTest;
-// import org.springframework.kafka.core.KafkaTemplate;
-// import org.springframework.kafka.test.context.EmbeddedKafka;
-// import org.springframework.test.web.servlet.MockMvc;
-// import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
-
-// @SpringBootTest
-// @AutoConfigureMockMvc
-// @EmbeddedKafka(partitions = 1, topics = {"calculation-requests", "calculation-results"})
-// public class CalculatorControllerTest {
-
-//     @Autowired
-//     private MockMvc mockMvc;
-
-//     @Mock
-//     private KafkaTemplate<String, String> kafkaTemplate;
-
-//     @InjectMocks
-//     private CalculatorController calculatorController;
-
-//     @BeforeEach
-//     public void setUp() {
-//         // This can be used to initialize the necessary test setups
-//     }
-
-//     @Test
-//     public void testSum() throws Exception {
-//         // Arrange
-//         double a = 5.0;
-//         double b = 3.0;
-//         String result = "8";
-        
-//         mockMvc.perform(get("/sum")
-//                 .param("a", String.valueOf(a))
-//                 .param("b", String.valueOf(b)));
-        
-//         // After the request completes, send the Kafka message.
-//         String requestId2 = "1231231";
-//         String message2 = String.join(",", requestId2, result);
-
-//         // Send Kafka message using the mock Kafka template
-//         kafkaTemplate.send("calculation-results", requestId2, message2);
-//     }
-// }
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * This test class verifies the functionality of the CalculatorController.
+ * It mocks the KafkaTemplate and completes the pending requests by feeding results to the executor's listener directly,
+ * which is possible now that the endpoints no longer block the calling thread.
+ */
+@SpringBootTest
+@ContextConfiguration(classes = com.example.RestApplication.class)  // Explicitly specify the main application class for context configuration
+@EmbeddedKafka(partitions = 1, topics = {"calculation-requests", "calculation-results"})  // Set up embedded Kafka with the specified topics for testing
+public class CalculatorControllerTest {
+
+    private static final int SERVLET_THREAD_LIMIT = 200;  // Default maximum number of Tomcat worker threads
+
+    @Mock
+    private KafkaTemplate<String, CalculationRequest> kafkaTemplate; // Mock the KafkaTemplate to simulate interactions with Kafka
+
+    @InjectMocks
+    private CalculatorController calculatorController; // Inject CalculatorController with the mocked KafkaTemplate
+
+    private KafkaCalculationExecutor executor;  // Executor sending through the mocked KafkaTemplate
+
+    @Autowired
+    private EmbeddedKafkaBroker broker;  // Shared with the rest instances started by the tests needing a real server
+
+    @Autowired
+    private AutowireCapableBeanFactory beanFactory;  // Configures the controller like the one of the application
+
+    @BeforeEach
+    public void setUp() {
+        beanFactory.autowireBean(calculatorController);  // Settings and collaborators of the test context
+        calculatorController.resultCache = null;  // Off unless a test turns it on
+        when(kafkaTemplate.send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any()))
+                .thenReturn(new CompletableFuture<>());  // Sent, never acknowledged
+        useExecutor(Duration.ofSeconds(30));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.close();
+    }
+
+    /**
+     * Test case for a sum request.
+     * Verifies that the request is sent to Kafka and the response is completed once the result arrives.
+     */
+    @Test
+    public void testSum() throws Exception {
+
+        // Send the request and capture the Kafka message
+        CompletableFuture<ResponseEntity<CalculationResponse>> response = calculatorController.sum(new BigDecimal("5"), new BigDecimal("3"));
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(1)).send(captor.capture());
+        ProducerRecord<String, CalculationRequest> record = captor.getValue();
+        String requestId = record.key();
+        assertEquals("calculation-requests", record.topic());
+        assertEquals(new CalculationRequest(requestId, "sum", new BigDecimal("5"), new BigDecimal("3")), record.value());
+        assertEquals("calculation-results-test", new String(record.headers().lastHeader(KafkaHeaders.REPLY_TOPIC).value()));
+        assertFalse(response.isDone());  // Nothing is blocked while the result is pending
+
+        // Deliver the result from Kafka
+        executor.listenToResults(new CalculationReply(requestId, "8"));
+
+        ResponseEntity<CalculationResponse> entity = response.get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.OK, entity.getStatusCode());
+        assertEquals(requestId, entity.getHeaders().getFirst("RequestId"));
+        assertEquals("8", entity.getBody().getResult());
+        assertTrue(executor.pendingRequests.isEmpty());  // The pending entry is cleaned up
+    }
+
+    /**
+     * Test case for the result cache.
+     * Verifies that identical requests in flight share one Kafka request, that a later identical request is answered
+     * from the cache, and that operands with a different scale are not mixed up.
+     */
+    @Test
+    public void testResultCache() throws Exception {
+        calculatorController.resultCache = new ResultCache(100, Duration.ofMinutes(1));
+
+        // Two identical requests while the first is still pending
+        CompletableFuture<ResponseEntity<CalculationResponse>> first = calculatorController.multiply(new BigDecimal("1.5"), new BigDecimal("2"));
+        CompletableFuture<ResponseEntity<CalculationResponse>> second = calculatorController.multiply(new BigDecimal("1.5"), new BigDecimal("2"));
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(1)).send(captor.capture());
+        executor.listenToResults(new CalculationReply(captor.getValue().key(), "3"));
+
+        assertEquals("3", first.get(1, TimeUnit.SECONDS).getBody().getResult());
+        assertEquals("3", second.get(1, TimeUnit.SECONDS).getBody().getResult());
+
+        // A later identical request is answered without Kafka, one with a different scale is sent
+        ResponseEntity<CalculationResponse> cached = calculatorController.multiply(new BigDecimal("1.5"), new BigDecimal("2")).get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.OK, cached.getStatusCode());
+        assertEquals("3", cached.getBody().getResult());
+        calculatorController.multiply(new BigDecimal("1.50"), new BigDecimal("2"));
+        verify(kafkaTemplate, times(2)).send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any());
+        assertEquals(2, calculatorController.resultCache.stats().hitCount());
+    }
+
+    /**
+     * Test case for decimal operands.
+     * Verifies that operands reach Kafka exactly as given and that 0.1 + 0.2 comes back as exactly 0.3.
+     */
+    @Test
+    public void testExactDecimals() throws Exception {
+        CompletableFuture<ResponseEntity<CalculationResponse>> remote = calculatorController.sum(new BigDecimal("0.1"), new BigDecimal("0.2"));
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(1)).send(captor.capture());
+        CalculationRequest request = captor.getValue().value();
+        assertEquals(new CalculationRequest(request.requestId(), "sum", new BigDecimal("0.1"), new BigDecimal("0.2")), request);
+        executor.listenToResults(new CalculationReply(request.requestId(), CalculationEngine.calculate(request.calculations().get(0))));
+        assertEquals("0.3", remote.get(1, TimeUnit.SECONDS).getBody().getResult());
+
+        calculatorController.executor = new LocalCalculationExecutor(null);
+        assertEquals("0.3", calculatorController.sum(new BigDecimal("0.1"), new BigDecimal("0.2")).get().getBody().getResult());
+        assertEquals("12345678901234567890.3", calculatorController.sum(
+                new BigDecimal("12345678901234567890.1"), new BigDecimal("0.2")).get().getBody().getResult());
+    }
+
+    /**
+     * Test case for a division by zero.
+     * Verifies that the request is rejected without being sent to Kafka.
+     */
+    @Test
+    public void testDivideByZero() throws Exception {
+        ResponseEntity<CalculationResponse> entity = calculatorController.divide(new BigDecimal("5"), new BigDecimal("0"), null, null).get(1, TimeUnit.SECONDS);
+
+        assertEquals(HttpStatus.BAD_REQUEST, entity.getStatusCode());
+        assertEquals("Error: Division by zero", entity.getBody().getResult());
+        assertTrue(executor.pendingRequests.isEmpty());
+    }
+
+    /**
+     * Test case for operands out of range.
+     * Verifies that operands with a huge exponent or too many digits are rejected with 400 in single, batch and
+     * aggregate requests, without being sent to Kafka.
+     */
+    @Test
+    public void testOperandOutOfRange() throws Exception {
+        ResponseEntity<CalculationResponse> sum = calculatorController.sum(new BigDecimal("1e-999999999"), BigDecimal.ONE).get(1, TimeUnit.SECONDS);
+        ResponseEntity<CalculationResponse> multiply = calculatorController.multiply(
+                BigDecimal.ONE, new BigDecimal("9".repeat(CalculationEngine.MAX_OPERAND_DIGITS + 1))).get(1, TimeUnit.SECONDS);
+        ResponseEntity<List<CalculationResponse>> batch = calculatorController.batch(List.of(
+                new Calculation("sum", BigDecimal.ONE, BigDecimal.ONE),
+                new Calculation("subtract", new BigDecimal("1e999999999"), BigDecimal.ONE))).get(1, TimeUnit.SECONDS);
+        calculatorController.streamExecutor = Runnable::run;
+
+        assertEquals(HttpStatus.BAD_REQUEST, sum.getStatusCode());
+        assertTrue(sum.getBody().getResult().startsWith("Error: Operand out of range"));
+        assertEquals(HttpStatus.BAD_REQUEST, multiply.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, batch.getStatusCode());
+        assertTrue(batch.getBody().get(0).getResult().endsWith("at index 1"));
+        ResponseEntity<CalculationResponse> aggregate = aggregate("sum", Aggregation.Mode.EXACT, "[1, 1e-999999999]");
+        assertEquals(HttpStatus.BAD_REQUEST, aggregate.getStatusCode());
+        assertTrue(aggregate.getBody().getResult().startsWith("Error: Operand out of range"));
+        verify(kafkaTemplate, never()).send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any());
+    }
+
+    /**
+     * Test case for an expression.
+     * Verifies that the expression is sent to Kafka as one calculation, with its whitespace collapsed, and that
+     * invalid expressions are rejected without being sent.
+     */
+    @Test
+    public void testEvaluate() throws Exception {
+
+        // Send the expression and capture the Kafka message
+        CompletableFuture<ResponseEntity<CalculationResponse>> response = calculatorController.evaluate(
+                " (a  *  b + 3)\n/ 7 ", new BigDecimal("4"), new BigDecimal("8"), null, null);
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(1)).send(captor.capture());
+        String requestId = captor.getValue().key();
+        assertEquals(new CalculationRequest(requestId, "=(a * b + 3) / 7", new BigDecimal("4"), new BigDecimal("8")),
+                captor.getValue().value());
+
+        // Deliver the result from Kafka
+        executor.listenToResults(new CalculationReply(requestId, "5"));
+
+        ResponseEntity<CalculationResponse> entity = response.get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.OK, entity.getStatusCode());
+        assertEquals("5", entity.getBody().getResult());
+
+        // An invalid expression never reaches Kafka
+        ResponseEntity<CalculationResponse> invalid = calculatorController.evaluate("(a * b", null, null, null, null)
+                .get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+        assertEquals("Error: Missing ')' at position 6", invalid.getBody().getResult());
+        verify(kafkaTemplate, times(1)).send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any());
+        assertTrue(executor.pendingRequests.isEmpty());
+    }
+
+    /**
+     * Test case for aggregates.
+     * Verifies that the values are sent in chunks of calculator.aggregate.chunk-size values or pairs, that the partial
+     * results are combined into the result of the whole array, that invalid bodies and overlong products are rejected,
+     * and that aggregates are refused with 429 while the stream executor is full.
+     */
+    @Test
+    public void testAggregate() throws Exception {
+        calculatorController.aggregateChunkSize = 3;
+        calculatorController.streamExecutor = Runnable::run;
+        LocalCalculationExecutor local = new LocalCalculationExecutor(null);
+        List<Calculation> chunks = new ArrayList<>();
+        calculatorController.executor = (requestId, calculations) -> {
+            chunks.addAll(calculations);
+            return local.execute(requestId, calculations);
+        };
+
+        assertEquals("4", aggregate("mean", Aggregation.Mode.EXACT, "[1, 2, 3, 4, 5, 6, 7]").getBody().getResult());
+        assertEquals(List.of("@sum", "@sum", "@sum"), chunks.stream().map(Calculation::operation).toList());
+        assertEquals(List.of(3, 3, 1), chunks.stream().map(chunk -> chunk.values().size()).toList());
+
+        chunks.clear();
+        assertEquals("100", aggregate("dot", Aggregation.Mode.EXACT, "[[1, 2], [3, 4], [5, 6], [7, 8]]").getBody().getResult());
+        assertEquals(2, chunks.size());
+        assertEquals("0.30000000000000004", aggregate("product", Aggregation.Mode.DOUBLE, "[0.1, 3]").getBody().getResult());
+
+        ResponseEntity<CalculationResponse> invalid = aggregate("sum", Aggregation.Mode.EXACT, "[1, \"x\"]");
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+        assertEquals("Error: Values must be a JSON array of numbers", invalid.getBody().getResult());
+        assertEquals("Error: No values", aggregate("sum", Aggregation.Mode.EXACT, "[]").getBody().getResult());
+        assertEquals("Error: Dot product values must be [x, y] pairs",
+                aggregate("dot", Aggregation.Mode.EXACT, "[[1, 2], [3, 4, 5]]").getBody().getResult());
+        assertEquals("Error: Invalid operation", aggregate("median", Aggregation.Mode.EXACT, "[1]").getBody().getResult());
+
+        // A product growing beyond MAX_PRODUCT_DIGITS is refused, both when combining the chunks and within a chunk
+        String longFactor = "9".repeat(CalculationEngine.MAX_OPERAND_DIGITS);
+        ResponseEntity<CalculationResponse> tooLong = aggregate("product", Aggregation.Mode.EXACT,
+                "[" + String.join(", ", Collections.nCopies(11, longFactor)) + "]");
+        assertEquals(HttpStatus.BAD_REQUEST, tooLong.getStatusCode());
+        assertTrue(tooLong.getBody().getResult().startsWith("Error: Product out of range"));
+        calculatorController.aggregateChunkSize = 20;  // All in one chunk
+        assertEquals(HttpStatus.BAD_REQUEST, aggregate("product", Aggregation.Mode.EXACT,
+                "[" + String.join(", ", Collections.nCopies(11, longFactor)) + "]").getStatusCode());
+
+        // An aggregate arriving while every stream thread is taken is refused
+        calculatorController.streamExecutor = task -> {
+            throw new RejectedExecutionException();
+        };
+        ResponseEntity<CalculationResponse> shed = aggregate("sum", Aggregation.Mode.EXACT, "[1]");
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, shed.getStatusCode());
+        assertEquals("1", shed.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    /**
+     * Test case for an aggregate whose body arrives slower than spring.mvc.async.request-timeout allows.
+     * Runs a rest instance with a real server and a one second async timeout, and verifies that an aggregate whose
+     * values take two seconds to arrive still gets its result, as aggregates are bounded by calculator.stream.timeout.
+     */
+    @Test
+    public void testSlowAggregate() throws Exception {
+        try (ConfigurableApplicationContext instance = new SpringApplicationBuilder(RestApplication.class)
+                .run("--server.port=0",
+                        "--spring.docker.compose.enabled=false",
+                        "--spring.kafka.bootstrap-servers=" + broker.getBrokersAsString(),
+                        "--spring.mvc.async.request-timeout=1s",
+                        "--calculator.execution.mode=local",
+                        "--calculator.instance-id=slow-aggregate")) {
+            byte[] values = ("[" + "1, ".repeat(20) + "1]").getBytes(StandardCharsets.UTF_8);
+            InputStream slowBody = new InputStream() {  // Sends one value every 100 milliseconds
+                private int position;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0];
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    if (position == values.length) {
+                        return -1;
+                    }
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                    int read = Math.min(Math.min(length, 3), values.length - position);
+                    System.arraycopy(values, position, buffer, offset, read);
+                    position += read;
+                    return read;
+                }
+            };
+            String port = instance.getEnvironment().getProperty("local.server.port");
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/aggregate?operation=sum"))
+                    .header(HttpHeaders.CONTENT_TYPE, "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> slowBody))
+                    .build();
+
+            HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(HttpStatus.OK.value(), response.statusCode());
+            assertEquals("{\"result\":\"21\"}", response.body());
+        }
+    }
+
+    /**
+     * Test case for a batch request.
+     * Verifies that all operations are sent to Kafka as one request and the results are returned in order.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        List<Calculation> calculations = List.of(
+                new Calculation("sum", new BigDecimal("10"), new BigDecimal("5")),
+                new Calculation("divide", new BigDecimal("9"), new BigDecimal("3")));
+
+        // Send the batch and capture the single Kafka message
+        CompletableFuture<ResponseEntity<List<CalculationResponse>>> response = calculatorController.batch(calculations);
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(1)).send(captor.capture());
+        String requestId = captor.getValue().key();
+        assertEquals(new CalculationRequest(requestId, calculations), captor.getValue().value());
+
+        // Deliver both results in one reply
+        executor.listenToResults(new CalculationReply(requestId, List.of("15", "3")));
+
+        ResponseEntity<List<CalculationResponse>> entity = response.get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.OK, entity.getStatusCode());
+        assertEquals(List.of("15", "3"), entity.getBody().stream().map(CalculationResponse::getResult).toList());
+        assertTrue(executor.pendingRequests.isEmpty());
+    }
+
+    /**
+     * Test case for invalid batch requests.
+     * Verifies that empty batches and batches with a division by zero are rejected without being sent to Kafka.
+     */
+    @Test
+    public void testBatchRejected() throws Exception {
+        ResponseEntity<List<CalculationResponse>> empty = calculatorController.batch(List.of()).get(1, TimeUnit.SECONDS);
+        ResponseEntity<List<CalculationResponse>> divideByZero = calculatorController.batch(List.of(
+                new Calculation("sum", BigDecimal.ONE, BigDecimal.ONE),
+                new Calculation("divide", BigDecimal.ONE, BigDecimal.ZERO))).get(1, TimeUnit.SECONDS);
+
+        assertEquals(HttpStatus.BAD_REQUEST, empty.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, divideByZero.getStatusCode());
+        assertEquals("Error: Division by zero at index 1", divideByZero.getBody().get(0).getResult());
+        verify(kafkaTemplate, never()).send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any());
+    }
+
+    /**
+     * Test case for a division with its own precision and rounding.
+     * Verifies that both are carried in the Kafka message, and that a precision above the server limit is rejected.
+     */
+    @Test
+    public void testDividePrecision() throws Exception {
+        calculatorController.maxPrecision = 50;
+
+        calculatorController.divide(BigDecimal.ONE, new BigDecimal("3"), 10, RoundingMode.DOWN);
+        ResponseEntity<CalculationResponse> tooPrecise = calculatorController.divide(BigDecimal.ONE, new BigDecimal("3"), 51, null)
+                .get(1, TimeUnit.SECONDS);
+
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(1)).send(captor.capture());
+        assertEquals(new Calculation("divide", BigDecimal.ONE, new BigDecimal("3"), 10, RoundingMode.DOWN),
+                captor.getValue().value().calculations().get(0));
+        assertEquals(HttpStatus.BAD_REQUEST, tooPrecise.getStatusCode());
+        assertEquals("Error: Precision must be between 1 and 50", tooPrecise.getBody().getResult());
+    }
+
+    /**
+     * Test case for replies with an error status.
+     * Verifies that a rejected request fails at once with a 400, a failed one with a 500, and a partly rejected batch
+     * with a 400 holding every result, long before the reply timeout.
+     */
+    @Test
+    public void testErrorReplies() throws Exception {
+        CompletableFuture<ResponseEntity<CalculationResponse>> rejected = calculatorController.divide(BigDecimal.ONE, new BigDecimal("3"), 900, null);
+        CompletableFuture<ResponseEntity<CalculationResponse>> failed = calculatorController.sum(BigDecimal.ONE, BigDecimal.TEN);
+        CompletableFuture<ResponseEntity<List<CalculationResponse>>> batch = calculatorController.batch(List.of(
+                new Calculation("sum", BigDecimal.ONE, BigDecimal.TEN),
+                new Calculation("divide", BigDecimal.ONE, new BigDecimal("3"), 900, null)));
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(3)).send(captor.capture());
+        List<ProducerRecord<String, CalculationRequest>> sent = captor.getAllValues();
+
+        // Answer as a calculator with a lower precision limit than this instance, and one that cannot decode the request
+        executor.listenToResults(new CalculationReply(sent.get(0).key(), ReplyStatus.CLIENT_ERROR,
+                List.of("Invalid precision, must be between 1 and 500")));
+        executor.listenToResults(new CalculationReply(sent.get(1).key(), ReplyStatus.SERVER_ERROR,
+                List.of("Error processing Kafka message: Empty decimal")));
+        executor.listenToResults(new CalculationReply(sent.get(2).key(), ReplyStatus.CLIENT_ERROR,
+                List.of("11", "Invalid precision, must be between 1 and 500")));
+
+        ResponseEntity<CalculationResponse> rejectedEntity = rejected.get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.BAD_REQUEST, rejectedEntity.getStatusCode());
+        assertEquals("Error: Invalid precision, must be between 1 and 500", rejectedEntity.getBody().getResult());
+        ResponseEntity<CalculationResponse> failedEntity = failed.get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, failedEntity.getStatusCode());
+        assertEquals("Error: Calculation failed", failedEntity.getBody().getResult());
+        ResponseEntity<List<CalculationResponse>> batchEntity = batch.get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.BAD_REQUEST, batchEntity.getStatusCode());
+        assertEquals(List.of("11", "Invalid precision, must be between 1 and 500"),
+                batchEntity.getBody().stream().map(CalculationResponse::getResult).toList());
+        assertTrue(executor.pendingRequests.isEmpty());
+    }
+
+    /**
+     * Test case for requests that can be rejected without the calculator.
+     * Verifies that an unknown operation is rejected before it is sent, and that a local division needing rounding
+     * with UNNECESSARY fails with a 400.
+     */
+    @Test
+    public void testRejectedWithoutCalculator() throws Exception {
+        ResponseEntity<List<CalculationResponse>> unknown = calculatorController.batch(List.of(
+                new Calculation("modulo", BigDecimal.ONE, BigDecimal.TEN))).get(1, TimeUnit.SECONDS);
+
+        assertEquals(HttpStatus.BAD_REQUEST, unknown.getStatusCode());
+        assertEquals("Error: Invalid operation at index 0", unknown.getBody().get(0).getResult());
+        verify(kafkaTemplate, never()).send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any());
+
+        calculatorController.executor = new LocalCalculationExecutor(null);
+        ResponseEntity<CalculationResponse> inexact = calculatorController.divide(BigDecimal.ONE, new BigDecimal("3"), null, RoundingMode.UNNECESSARY)
+                .get(1, TimeUnit.SECONDS);
+
+        assertEquals(HttpStatus.BAD_REQUEST, inexact.getStatusCode());
+        assertEquals("Error: Rounding necessary", inexact.getBody().getResult());
+    }
+
+    /**
+     * Test case for a request whose result never arrives.
+     * Verifies that the response is completed with a 504 once the reply timeout elapses.
+     */
+    @Test
+    public void testReplyTimeout() throws Exception {
+        useExecutor(Duration.ofMillis(100));
+
+        ResponseEntity<CalculationResponse> entity = calculatorController.multiply(new BigDecimal("2"), new BigDecimal("4")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, entity.getStatusCode());
+        assertTrue(executor.pendingRequests.isEmpty());
+    }
+
+    /**
+     * Test case for the in-flight limit.
+     * Verifies that a request beyond the limit is refused at once with a 429 and a Retry-After header without being
+     * sent, and that requests are accepted again once a pending one completes.
+     */
+    @Test
+    public void testAdmissionControl() throws Exception {
+        useExecutor(new KafkaCalculationExecutor(kafkaTemplate, "calculation-results-test", Duration.ofSeconds(30),
+                2, Duration.ofSeconds(3), null));
+
+        calculatorController.sum(BigDecimal.ONE, BigDecimal.ONE);
+        calculatorController.sum(BigDecimal.ONE, BigDecimal.TWO);
+        ResponseEntity<CalculationResponse> shed = calculatorController.sum(BigDecimal.ONE, BigDecimal.TEN).get(1, TimeUnit.SECONDS);
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, shed.getStatusCode());
+        assertEquals("3", shed.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals("Error: Too many requests in flight", shed.getBody().getResult());
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(2)).send(captor.capture());
+        assertEquals(2, executor.pendingRequests.size());
+
+        // One result frees a slot
+        executor.listenToResults(new CalculationReply(captor.getAllValues().get(0).key(), "2"));
+        calculatorController.sum(BigDecimal.ONE, BigDecimal.TEN);
+        verify(kafkaTemplate, times(3)).send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any());
+    }
+
+    /**
+     * Test case for the circuit breaker.
+     * Verifies that timeouts open the circuit, that requests are then refused with a 503 without being sent,
+     * and that a single probe is let through after the open duration whose result closes the circuit again.
+     */
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 0.5, 1.0, Duration.ofSeconds(10), Duration.ofMillis(200));
+        useExecutor(new KafkaCalculationExecutor(kafkaTemplate, "calculation-results-test", Duration.ofMillis(50),
+                100, Duration.ofSeconds(1), circuitBreaker));
+
+        // Two timeouts fill the window and open the circuit
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, calculatorController.sum(BigDecimal.ONE, BigDecimal.ONE).get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, calculatorController.sum(BigDecimal.ONE, BigDecimal.TWO).get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        ResponseEntity<CalculationResponse> refused = calculatorController.sum(BigDecimal.ONE, BigDecimal.TEN).get(1, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, refused.getStatusCode());
+        assertEquals("1", refused.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        verify(kafkaTemplate, times(2)).send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any());
+
+        // After the open duration one probe is sent, and others are refused while it is in flight
+        Thread.sleep(250);
+        CompletableFuture<ResponseEntity<CalculationResponse>> probe = calculatorController.sum(BigDecimal.TEN, BigDecimal.TEN);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, calculatorController.sum(BigDecimal.TWO, BigDecimal.TEN).get(1, TimeUnit.SECONDS).getStatusCode());
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(3)).send(captor.capture());
+        executor.listenToResults(new CalculationReply(captor.getValue().key(), "20"));
+
+        assertEquals(HttpStatus.OK, probe.get(1, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    /**
+     * Test case for the half open circuit breaker.
+     * Verifies that a late reply to a request sent before the circuit opened neither closes nor reopens the circuit,
+     * and that only the failure of the probe opens it again.
+     */
+    @Test
+    public void testCircuitBreakerProbeDecides() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 0.5, 1.0, Duration.ofSeconds(10), Duration.ofMillis(200));
+        useExecutor(new KafkaCalculationExecutor(kafkaTemplate, "calculation-results-test", Duration.ofSeconds(5),
+                100, Duration.ofSeconds(1), circuitBreaker));
+
+        // One request stays pending while two failures open the circuit
+        CompletableFuture<ResponseEntity<CalculationResponse>> late = calculatorController.sum(BigDecimal.ONE, BigDecimal.ONE);
+        calculatorController.sum(BigDecimal.ONE, BigDecimal.TWO);
+        calculatorController.sum(BigDecimal.ONE, BigDecimal.TEN);
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(3)).send(captor.capture());
+        List<ProducerRecord<String, CalculationRequest>> sent = captor.getAllValues();
+        executor.listenToResults(new CalculationReply(sent.get(1).key(), ReplyStatus.SERVER_ERROR, List.of("Failed")));
+        executor.listenToResults(new CalculationReply(sent.get(2).key(), ReplyStatus.SERVER_ERROR, List.of("Failed")));
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        // The late reply arrives while the probe is in flight
+        Thread.sleep(250);
+        CompletableFuture<ResponseEntity<CalculationResponse>> probe = calculatorController.sum(BigDecimal.TEN, BigDecimal.TEN);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        executor.listenToResults(new CalculationReply(sent.get(0).key(), "2"));
+        assertEquals(HttpStatus.OK, late.get(1, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        // The failed probe opens the circuit again
+        captor = recordCaptor();
+        verify(kafkaTemplate, times(4)).send(captor.capture());
+        executor.listenToResults(new CalculationReply(captor.getValue().key(), ReplyStatus.SERVER_ERROR, List.of("Failed")));
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, probe.get(1, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    /**
+     * Test case for the metrics.
+     * Verifies that the send time header is set, and that end-to-end latency, Kafka send latency, pending requests,
+     * replies without a pending request and timeouts are recorded.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        calculatorController.meterRegistry = meterRegistry;
+        when(kafkaTemplate.send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        useExecutor(new KafkaCalculationExecutor(kafkaTemplate, "calculation-results-test", Duration.ofSeconds(1),
+                100, Duration.ofSeconds(1), null, meterRegistry));
+
+        CompletableFuture<ResponseEntity<CalculationResponse>> answered = calculatorController.sum(BigDecimal.ONE, BigDecimal.TWO);
+        CompletableFuture<ResponseEntity<CalculationResponse>> unanswered = calculatorController.multiply(BigDecimal.ONE, BigDecimal.TWO);
+        assertEquals(2.0, meterRegistry.get("calculator.requests.pending").gauge().value());
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(2)).send(captor.capture());
+        assertTrue(captor.getValue().headers().lastHeader(CalculationRequest.SENT_AT_HEADER) != null);
+
+        String requestId = captor.getAllValues().get(0).key();
+        executor.listenToResults(new CalculationReply(requestId, "3"));
+        executor.listenToResults(new CalculationReply(requestId, "3"));  // Duplicate, its request already completed
+        assertEquals(HttpStatus.OK, answered.get(1, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, unanswered.get(5, TimeUnit.SECONDS).getStatusCode());
+
+        assertEquals(1, meterRegistry.get("calculator.requests").tags("operation", "sum", "status", "200").timer().count());
+        assertEquals(1, meterRegistry.get("calculator.requests").tags("operation", "multiply", "status", "504").timer().count());
+        assertEquals(2, meterRegistry.get("calculator.kafka.send").tags("outcome", "success").timer().count());
+        assertEquals(1.0, meterRegistry.get("calculator.replies.orphaned").counter().count());
+        assertEquals(1.0, meterRegistry.get("calculator.requests.timeouts").counter().count());
+        assertEquals(0.0, meterRegistry.get("calculator.requests.pending").gauge().value());
+    }
+
+    /**
+     * Load test for concurrent in-flight requests.
+     * Opens five times as many requests as the servlet thread pool could hold when every request parked a thread,
+     * all from a single thread, and verifies they are all pending at once and all complete once the results arrive.
+     */
+    @Test
+    public void testInFlightRequestsBeyondServletThreadLimit() throws Exception {
+        int inFlight = SERVLET_THREAD_LIMIT * 5;
+
+        // Open all requests without waiting on any of them
+        List<CompletableFuture<ResponseEntity<CalculationResponse>>> responses = new ArrayList<>();
+        for (int i = 0; i < inFlight; i++) {
+            responses.add(calculatorController.sum(BigDecimal.valueOf(i), new BigDecimal("1")));
+        }
+        assertEquals(inFlight, executor.pendingRequests.size());
+
+        // Deliver every result and verify each response got its own
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(inFlight)).send(captor.capture());
+        List<ProducerRecord<String, CalculationRequest>> captured = captor.getAllValues();
+        for (int i = 0; i < inFlight; i++) {
+            executor.listenToResults(new CalculationReply(captured.get(i).key(), String.valueOf(i + 1)));
+        }
+        for (int i = 0; i < inFlight; i++) {
+            ResponseEntity<CalculationResponse> entity = responses.get(i).get(1, TimeUnit.SECONDS);
+            assertEquals(HttpStatus.OK, entity.getStatusCode());
+            assertEquals(String.valueOf(i + 1), entity.getBody().getResult());
+        }
+        assertTrue(executor.pendingRequests.isEmpty());
+    }
+
+    /**
+     * Test case for the streaming endpoint.
+     * Feeds the results from a separate thread, like the calculator would, and verifies that every operation gets its
+     * indexed result, that invalid lines are answered without being sent, and that the number of pending requests
+     * never exceeds the in-flight limit.
+     */
+    @Test
+    public void testStreamBackpressure() throws Exception {
+        int operations = 200;
+        calculatorController.maxStreamInFlight = 10;
+
+        // Stub calculator answering every request sent to Kafka
+        BlockingQueue<ProducerRecord<String, CalculationRequest>> sent = new LinkedBlockingQueue<>();
+        when(kafkaTemplate.send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any())).thenAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            return new CompletableFuture<>();
+        });
+        AtomicInteger peakInFlight = new AtomicInteger();
+        Thread calculator = new Thread(() -> {
+            try {
+                for (int i = 0; i < operations; i++) {
+                    ProducerRecord<String, CalculationRequest> record = sent.take();
+                    peakInFlight.accumulateAndGet(executor.pendingRequests.size(), Math::max);
+                    Calculation calculation = record.value().calculations().get(0);
+                    executor.listenToResults(
+                            new CalculationReply(record.key(), calculation.a().add(calculation.b()).toPlainString()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        calculator.start();
+
+        // Stream the operations, with an invalid line and a blank line in between
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < operations; i++) {
+            input.append("{\"operation\":\"sum\",\"a\":").append(i).append(",\"b\":1}\n");
+        }
+        input.append("\n{\"operation\":\"divide\",\"a\":1,\"b\":0}\n");
+        StringWriter output = new StringWriter();
+        long streamed = calculatorController.streamCalculations(new BufferedReader(new StringReader(input.toString())), output);
+        calculator.join(5000);
+
+        assertEquals(operations + 1, streamed);
+        Map<Long, String> results = new HashMap<>();
+        for (String line : output.toString().split("\n")) {
+            StreamedResult result = new ObjectMapper().readValue(line, StreamedResult.class);
+            results.put(result.index(), result.result());
+        }
+        assertEquals(operations + 1, results.size());
+        for (int i = 0; i < operations; i++) {
+            assertEquals(String.valueOf(i + 1), results.get((long) i));
+        }
+        assertEquals("Error: Division by zero", results.get((long) operations));
+        assertTrue(peakInFlight.get() <= 10);
+        assertTrue(executor.pendingRequests.isEmpty());
+    }
+
+    /**
+     * Test case for a stream refused at the limit of open streams.
+     * Verifies that the stream is answered with 429 Too Many Requests and a Retry-After header while every thread of
+     * the stream executor is taken.
+     */
+    @Test
+    public void testStreamRejected() throws Exception {
+        ThreadPoolTaskExecutor streamExecutor = new StreamExecutorConfig().streamExecutor(1);
+        streamExecutor.initialize();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            streamExecutor.execute(() -> {  // Holds the only thread, like an open stream
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            calculatorController.streamExecutor = streamExecutor;
+
+            ResponseEntity<ResponseBodyEmitter> response = calculatorController.stream(new ByteArrayInputStream(new byte[0]));
+
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+            assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        } finally {
+            release.countDown();
+            streamExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Test case for the local-audit execution mode.
+     * Verifies that the result is returned without waiting for Kafka and the request is published to the audit topic.
+     */
+    @Test
+    public void testLocalExecutionWithAudit() throws Exception {
+        when(kafkaTemplate.send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        calculatorController.executor = new LocalCalculationExecutor(kafkaTemplate);
+
+        CompletableFuture<ResponseEntity<CalculationResponse>> response = calculatorController.divide(new BigDecimal("10"), new BigDecimal("4"), null, null);
+
+        assertTrue(response.isDone());  // Completed on the calling thread
+        assertEquals("2.5", response.get().getBody().getResult());
+        ArgumentCaptor<ProducerRecord<String, CalculationRequest>> captor = recordCaptor();
+        verify(kafkaTemplate, times(1)).send(captor.capture());
+        assertEquals("calculation-audit", captor.getValue().topic());
+        assertEquals(new CalculationRequest(captor.getValue().key(), "divide", new BigDecimal("10"), new BigDecimal("4")),
+                captor.getValue().value());
+    }
+
+    /**
+     * Test case for the local-audit execution mode with an unreachable broker.
+     * Verifies that a send failing on the calling thread, as it does once max.block.ms runs out, still returns the result.
+     */
+    @Test
+    public void testLocalExecutionWithFailedAudit() throws Exception {
+        when(kafkaTemplate.send(ArgumentMatchers.<ProducerRecord<String, CalculationRequest>>any()))
+                .thenThrow(new KafkaException("Topic calculation-audit not present in metadata after 100 ms."));
+        calculatorController.executor = new LocalCalculationExecutor(kafkaTemplate);
+
+        ResponseEntity<CalculationResponse> response = calculatorController.sum(new BigDecimal("10"), new BigDecimal("4"))
+                .get(1, TimeUnit.SECONDS);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("14", response.getBody().getResult());
+    }
+
+    /**
+     * Aggregates the values of a JSON body through the controller, waiting for the response.
+     */
+    @SuppressWarnings("unchecked")
+    private ResponseEntity<CalculationResponse> aggregate(String operation, Aggregation.Mode mode, String body) throws Exception {
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        calculatorController.aggregate(operation, mode, null, null, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)))
+                .setResultHandler(response::complete);
+        return (ResponseEntity<CalculationResponse>) response.get(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Makes the controller send its requests through the mocked KafkaTemplate with the given reply timeout.
+     */
+    private void useExecutor(Duration replyTimeout) {
+        useExecutor(new KafkaCalculationExecutor(kafkaTemplate, "calculation-results-test", replyTimeout));
+    }
+
+    private void useExecutor(KafkaCalculationExecutor kafkaExecutor) {
+        if (executor != null) {
+            executor.close();
+        }
+        executor = kafkaExecutor;
+        calculatorController.executor = executor;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<ProducerRecord<String, CalculationRequest>> recordCaptor() {
+        return ArgumentCaptor.forClass(ProducerRecord.class);
+    }
+}
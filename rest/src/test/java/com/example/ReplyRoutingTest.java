@@ -0,0 +1,146 @@
+package com.example;
+
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+
+/**
+ * This test class verifies that results are routed back to the rest instance that sent the request.
+ * It runs several rest instances against one embedded Kafka broker, with a stub calculator that answers
+ * every request on the reply topic named in its header, and adds instances one at a time while requests keep flowing.
+ */
+@EmbeddedKafka(partitions = 3, topics = {"calculation-requests"})  // Set up embedded Kafka with the request topic shared by all instances
+public class ReplyRoutingTest {
+
+    private static final int INSTANCES = 3;
+    private static final int REQUESTS_PER_INSTANCE = 50;
+
+    private final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+    private KafkaMessageListenerContainer<String, CalculationRequest> calculator;
+
+    @AfterEach
+    public void tearDown() {
+        instances.forEach(ConfigurableApplicationContext::close);
+        if (calculator != null) {
+            calculator.stop();
+        }
+    }
+
+    /**
+     * Scales out from one to three rest instances and sends requests through every running instance at each step.
+     * Verifies that every request gets its own result and that no instance is left with pending requests.
+     */
+    @Test
+    public void testNoRepliesLostWhenScalingOut(EmbeddedKafkaBroker broker) throws Exception {
+        calculator = startStubCalculator(broker);
+
+        for (int i = 1; i <= INSTANCES; i++) {
+            instances.add(startRestInstance(broker, "rest-" + i));
+
+            // Fire requests through every running instance before waiting on any of them
+            List<CompletableFuture<ResponseEntity<CalculationResponse>>> responses = new ArrayList<>();
+            List<Integer> expected = new ArrayList<>();
+            for (ConfigurableApplicationContext instance : instances) {
+                CalculatorController controller = instance.getBean(CalculatorController.class);
+                for (int n = 0; n < REQUESTS_PER_INSTANCE; n++) {
+                    responses.add(controller.sum(BigDecimal.valueOf(n), BigDecimal.valueOf(i)));
+                    expected.add(n + i);
+                }
+            }
+
+            for (int n = 0; n < responses.size(); n++) {
+                ResponseEntity<CalculationResponse> entity = responses.get(n).get(30, TimeUnit.SECONDS);
+                assertEquals(HttpStatus.OK, entity.getStatusCode());
+                assertEquals(String.valueOf(expected.get(n)), entity.getBody().getResult());
+            }
+            for (ConfigurableApplicationContext instance : instances) {
+                assertTrue(instance.getBean(KafkaCalculationExecutor.class).pendingRequests.isEmpty());
+            }
+        }
+    }
+
+    /**
+     * Test case for the reply topic of an instance without a configured ID.
+     * Verifies that it is named after the host and port, that instances on other ports get other topics, that instances
+     * on a random port never share one, and that a configured ID wins.
+     */
+    @Test
+    public void testDefaultReplyTopic() throws Exception {
+        ReplyTopicConfig config = new ReplyTopicConfig();
+
+        assertEquals("calculation-results-" + InetAddress.getLocalHost().getHostName() + "-8081", config.replyTopic("", 8081));
+        assertNotEquals(config.replyTopic("", 8081), config.replyTopic("", 8082));
+        assertNotEquals(config.replyTopic("", 0), config.replyTopic("", 0));
+        assertNotEquals(config.replyTopic("", 0), config.replyTopic("", 8081));
+        assertEquals("calculation-results-rest-1", config.replyTopic("rest-1", 8081));
+    }
+
+    /**
+     * Starts a rest instance with the given instance ID and no web server.
+     */
+    private static ConfigurableApplicationContext startRestInstance(EmbeddedKafkaBroker broker, String instanceId) {
+        return new SpringApplicationBuilder(RestApplication.class)
+                .run("--spring.main.web-application-type=none",
+                        "--spring.docker.compose.enabled=false",
+                        "--spring.kafka.bootstrap-servers=" + broker.getBrokersAsString(),
+                        "--calculator.instance-id=" + instanceId);
+    }
+
+    /**
+     * Starts a stub calculator that sums the operands of each request and replies on the topic named in its header.
+     */
+    private static KafkaMessageListenerContainer<String, CalculationRequest> startStubCalculator(EmbeddedKafkaBroker broker) {
+        var producerProps = KafkaTestUtils.producerProps(broker);
+        producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, CalculationReplySerializer.class);
+        KafkaTemplate<String, CalculationReply> replies = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(producerProps));
+
+        var consumerProps = KafkaTestUtils.consumerProps("calculator-group", "false", broker);
+        consumerProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, CalculationRequestDeserializer.class);
+        ContainerProperties containerProperties = new ContainerProperties("calculation-requests");
+        containerProperties.setMessageListener((MessageListener<String, CalculationRequest>) (ConsumerRecord<String, CalculationRequest> record) -> {
+            CalculationRequest request = record.value();
+            Calculation calculation = request.calculations().get(0);
+            String result = calculation.a().add(calculation.b()).toBigInteger().toString();
+            String replyTopic = new String(record.headers().lastHeader(KafkaHeaders.REPLY_TOPIC).value(), StandardCharsets.UTF_8);
+            replies.send(new ProducerRecord<>(replyTopic, request.requestId(), new CalculationReply(request.requestId(), result)));
+        });
+
+        KafkaMessageListenerContainer<String, CalculationRequest> container = new KafkaMessageListenerContainer<>(
+                new DefaultKafkaConsumerFactory<>(consumerProps), containerProperties);
+        container.start();
+        return container;
+    }
+}